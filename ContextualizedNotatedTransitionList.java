@@ -1,17 +1,35 @@
 package siteswapsuite;
 
+import java.math.BigInteger;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ContextualizedNotatedTransitionList extends CompatibleNotatedSiteswapPair {
 
 	private Transition generalTransition;
+	private TransitionSearch shortestTransitionSearch; // null unless listing shortest transitions by search
 	private List<NotatedSiteswap> transitionList;
 	private List<NotatedSiteswap> unAntitossifiedTransitionList;
 	private int prefixLength, transitionLength, suffixLength;
 	private int numHands;
 
 	public ContextualizedNotatedTransitionList(CompatibleNotatedSiteswapPair patterns, int minLength, int maxTransitions, boolean allowExtraSqueezeCatches, boolean generateBallAntiballPairs) throws ImpossibleTransitionException {
+		this(patterns, minLength, maxTransitions, allowExtraSqueezeCatches, generateBallAntiballPairs, 1, false, new TransitionSearch.Constraints(), null, false);
+	}
+
+	// with numThreads > 1, the specific transitions are built and notated in parallel (but still listed in order).
+	// with searchShortest, the transitions listed (and counted, and sampled) are every shortest transition found
+	// by TransitionSearch, rather than the ones the general transition gives. any constraints imply searchShortest.
+	// with bestBy, the maxTransitions listed are the ones that cost the least by that measure, cheapest first.
+	// with increasingLengths, the search goes on to longer transitions once the shortest ones run out, until
+	// maxTransitions have been listed (so that can't be -1). it implies searchShortest too.
+	public ContextualizedNotatedTransitionList(CompatibleNotatedSiteswapPair patterns, int minLength, int maxTransitions, boolean allowExtraSqueezeCatches, boolean generateBallAntiballPairs, int numThreads, boolean searchShortest, TransitionSearch.Constraints constraints, TransitionCost bestBy, boolean increasingLengths) throws ImpossibleTransitionException {
 		super(patterns);
 		this.numHands = this.prefix.siteswap.numHands;
 		// get transition
@@ -19,19 +37,45 @@ public class ContextualizedNotatedTransitionList extends CompatibleNotatedSitesw
 		Util.printf("suffix: " + this.suffix.toString(), Util.DebugLevel.DEBUG);
 		// then find the general form of the transition, if possible
 		try {
-			this.generalTransition = Transition.compute(this.from.state, this.to.state, minLength, allowExtraSqueezeCatches, generateBallAntiballPairs);
+			this.generalTransition = TransitionCache.shared().compute(this.from.state, this.to.state, minLength, allowExtraSqueezeCatches, generateBallAntiballPairs);
+			Util.printf("transition cache: " + TransitionCache.shared(), Util.DebugLevel.DEBUG);
 			this.transitionLength = generalTransition.eventualPeriod;
-			// then get a list of the specific transitions
-			List<Siteswap> unNotatedTransitionList = this.generalTransition.unInfinitize(maxTransitions);
-			// then assemble them into notated siteswaps
-			this.transitionList = new ArrayList<NotatedSiteswap>();
-			for(int i=0; i<unNotatedTransitionList.size(); i++) {
-				try {
-					this.transitionList.add(NotatedSiteswap.assemble(unNotatedTransitionList.get(i), this.compatibleSiteswapNotationType));
-				} catch(IncompatibleNotationException e) {
-					System.out.println("incompatible notations within ContextualizedNotatedTransitionList constructor, somehow...");
-					System.out.println(e);
-					System.exit(1);
+			if(searchShortest || increasingLengths || !constraints.isEmpty()) {
+				// sync patterns only throw every other beat; async ones written in sync notation (with '!') don't
+				boolean isSync = (this.compatibleSiteswapNotationType == SiteswapNotation.SYNCHRONOUS && onlyEvenBeats(this.from.state) && onlyEvenBeats(this.to.state));
+				int beatsPerStep = (isSync ? 2 : 1);
+				this.shortestTransitionSearch = new TransitionSearch(this.from.state, this.to.state, minLength, beatsPerStep, constraints);
+				this.transitionLength = this.shortestTransitionSearch.length();
+				List<Siteswap> unNotatedTransitionList;
+				if(increasingLengths) {
+					unNotatedTransitionList = new ArrayList<Siteswap>();
+					Iterator<Siteswap> it = this.shortestTransitionSearch.increasingLengthIterator();
+					while(it.hasNext() && unNotatedTransitionList.size() < maxTransitions) {
+						unNotatedTransitionList.add(it.next());
+					}
+				} else if(bestBy != null) {
+					unNotatedTransitionList = this.shortestTransitionSearch.bestTransitions(maxTransitions, bestBy);
+				} else {
+					unNotatedTransitionList = this.shortestTransitionSearch.list(maxTransitions);
+				}
+				this.transitionList = new ArrayList<NotatedSiteswap>();
+				for(Siteswap ss : unNotatedTransitionList) {
+					this.transitionList.add(this.assembleTransition(ss));
+				}
+			} else if(bestBy != null) {
+				this.transitionList = new ArrayList<NotatedSiteswap>();
+				for(Siteswap ss : this.generalTransition.bestTransitions(maxTransitions, bestBy)) {
+					this.transitionList.add(this.assembleTransition(ss));
+				}
+			} else if(numThreads > 1) {
+				this.transitionList = this.parallelTransitionList(maxTransitions, numThreads);
+			} else {
+				// then get a list of the specific transitions
+				List<Siteswap> unNotatedTransitionList = this.generalTransition.unInfinitize(maxTransitions);
+				// then assemble them into notated siteswaps
+				this.transitionList = new ArrayList<NotatedSiteswap>();
+				for(int i=0; i<unNotatedTransitionList.size(); i++) {
+					this.transitionList.add(this.assembleTransition(unNotatedTransitionList.get(i)));
 				}
 			}
 		} catch(ImpossibleTransitionException e) {
@@ -39,10 +83,73 @@ public class ContextualizedNotatedTransitionList extends CompatibleNotatedSitesw
 		}
 	}
 
+	private static boolean onlyEvenBeats(State state) {
+		for(int b=1; b<state.finiteLength(); b+=2) {
+			for(int h=0; h<state.numHands(); h++) {
+				if(state.getChargeAtBeatAtHand(b, h) != 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	public Siteswap generalTransition() {
 		return this.generalTransition;
 	}
 
+	private NotatedSiteswap assembleTransition(Siteswap ss) {
+		try {
+			return NotatedSiteswap.assemble(ss, this.compatibleSiteswapNotationType);
+		} catch(IncompatibleNotationException e) {
+			System.out.println("incompatible notations within ContextualizedNotatedTransitionList, somehow...");
+			System.out.println(e);
+			System.exit(1);
+			return null;
+		}
+	}
+
+	// split the transitions across a pool of the given number of threads
+	private List<NotatedSiteswap> parallelTransitionList(int maxTransitions, int numThreads) {
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			return pool.submit(() -> {
+				Stream<Siteswap> stream = this.generalTransition.unInfinitizeStream(true, true);
+				if(maxTransitions != -1) {
+					stream = stream.limit(maxTransitions);
+				}
+				return stream.map(ss -> this.assembleTransition(ss)).collect(Collectors.toList());
+			}).get();
+		} catch(InterruptedException | ExecutionException e) {
+			Util.printf("ERROR: parallel transition enumeration failed: " + e.getMessage(), Util.DebugLevel.ERROR);
+			return new ArrayList<NotatedSiteswap>();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	// n distinct transitions chosen uniformly at random, notated like the rest
+	public List<NotatedSiteswap> randomTransitionList(int n, Random random) {
+		List<NotatedSiteswap> ret = new ArrayList<NotatedSiteswap>();
+		List<Siteswap> chosen;
+		if(this.shortestTransitionSearch != null) {
+			chosen = this.shortestTransitionSearch.randomTransitions(n, random);
+		} else {
+			chosen = this.generalTransition.randomTransitions(n, random);
+		}
+		for(Siteswap ss : chosen) {
+			ret.add(this.assembleTransition(ss));
+		}
+		return ret;
+	}
+
+	public BigInteger numTransitions() {
+		if(this.shortestTransitionSearch != null) {
+			return this.shortestTransitionSearch.numTransitions();
+		}
+		return this.generalTransition.numTransitions();
+	}
+
 	public int transitionLength() {
 		return this.transitionLength;
 	}
@@ -0,0 +1,35 @@
+package siteswapsuite;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+// One instance of each distinct value, so that equal values can be the same object, compared
+// with == and only kept in memory once. The values have to be immutable, since everyone who
+// interns an equal one gets the same one back. The table only holds them weakly, so a value is
+// dropped once nothing else refers to it, and the next equal one interned takes its place; any
+// two that are both still around are still the same object.
+class Interner<T> {
+
+	private final WeakHashMap<T,WeakReference<T>> table;
+
+	Interner() {
+		this.table = new WeakHashMap<T,WeakReference<T>>();
+	}
+
+	// the instance equal to the given value, which is the value itself if there isn't one around
+	synchronized T intern(T value) {
+		WeakReference<T> ref = this.table.get(value);
+		T existing = (ref != null ? ref.get() : null);
+		if(existing != null) {
+			return existing;
+		}
+		// the key is the value itself, so the entry goes when the value does
+		this.table.put(value, new WeakReference<T>(value));
+		return value;
+	}
+
+	synchronized int size() {
+		return this.table.size();
+	}
+
+}
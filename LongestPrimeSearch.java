@@ -0,0 +1,599 @@
+package siteswapsuite;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Arrays;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+class CheckpointException extends SiteswapException {
+	String message;
+	CheckpointException(String message) {
+		this.message = "ERROR: " + message;
+	}
+	public String getMessage() {
+		return this.message;
+	}
+}
+
+// Finds the longest prime siteswaps with a given number of balls and maximum
+// throw height: the longest closed walks in a StateGraph that don't pass through
+// any state twice, which is what Siteswap.isPrime() checks for.
+//
+// Each cycle is only looked for from its lowest-numbered state, through higher-
+// numbered states, so it's found once. Before searching from a start, states that
+// aren't on any cycle through it are left out, and while searching, a state is
+// counted out as soon as every state with an edge into it has been left by some
+// other edge, or every state it has an edge to is already on the walk. Branches
+// that can't get as long as the longest cycle found so far are cut off.
+//
+// For async patterns, the bound also uses the states' shift cycles (the states
+// whose slots are rotations of each other, which 0s and throws of the maximum
+// height go around): a prime pattern other than a shift cycle itself has to leave
+// out at least one state of every shift cycle, since the state before the one it
+// comes in on has nowhere else to go.
+//
+// The search is split into ForkJoin tasks by start and by the first few steps from
+// it, so idle threads steal subtrees from busy ones. With a checkpoint file, the
+// longest cycles found so far and the subtrees that are finished are written out
+// every so often, and a search started from the same file carries on from there.
+public class LongestPrimeSearch {
+
+	static final int SPLIT_DEPTH = 4; // only split up subtrees this many steps from the start
+	static final int MIN_SPLIT_STATES = 24; // don't split up subtrees with fewer states left than this
+	static final long CHECKPOINT_MILLIS = 60000;
+	static final String ALL_FINISHED = "*";
+
+	StateGraph graph;
+	// distinct neighbouring states of each state, in CSR form like the graph's edges
+	private int[] successorOffsets;
+	private int[] successors;
+	private int[] predecessorOffsets;
+	private int[] predecessors;
+	// shift cycle of each state (for sync patterns, every state is on its own), and how many
+	// of the states on each one a prime pattern can go through
+	private int[] groups;
+	private int[] groupCaps;
+	private int numGroups;
+
+	// progress so far, shared by every task
+	private volatile int bestLength; // in steps
+	private Map<String,int[]> bestWalks = new LinkedHashMap<String,int[]>(); // keyed by their edges
+	private Set<String> finished = new HashSet<String>(); // subtrees searched through
+	private int resumeDepth = -1; // deepest finished subtree read from the checkpoint file
+	private Path checkpointFile;
+
+	public LongestPrimeSearch(int numBalls, int maxHeight, int numHands) throws StateGraphException {
+		this.graph = new StateGraph(numBalls, maxHeight, numHands);
+		Util.printf(this.graph, Util.DebugLevel.DEBUG);
+		int numStates = this.graph.numStates();
+		this.successorOffsets = new int[numStates + 1];
+		this.predecessorOffsets = new int[numStates + 1];
+		int[] seen = new int[numStates];
+		Arrays.fill(seen, -1);
+		List<Integer> successorList = new ArrayList<Integer>();
+		int[] inDegrees = new int[numStates];
+		for(int s=0; s<numStates; s++) {
+			this.successorOffsets[s] = successorList.size();
+			int end = this.graph.edgeStart(s) + this.graph.outDegree(s);
+			for(int e=this.graph.edgeStart(s); e<end; e++) {
+				int t = this.graph.edgeTarget(e);
+				// sync states can have several edges to the same state
+				if(seen[t] != s) {
+					seen[t] = s;
+					successorList.add(t);
+					inDegrees[t]++;
+				}
+			}
+		}
+		this.successorOffsets[numStates] = successorList.size();
+		this.successors = new int[successorList.size()];
+		for(int i=0; i<this.successors.length; i++) {
+			this.successors[i] = successorList.get(i);
+		}
+		for(int t=0; t<numStates; t++) {
+			this.predecessorOffsets[t + 1] = this.predecessorOffsets[t] + inDegrees[t];
+		}
+		this.predecessors = new int[this.successors.length];
+		int[] filled = Arrays.copyOf(this.predecessorOffsets, numStates);
+		for(int s=0; s<numStates; s++) {
+			for(int i=this.successorOffsets[s]; i<this.successorOffsets[s + 1]; i++) {
+				this.predecessors[filled[this.successors[i]]++] = s;
+			}
+		}
+		this.groups = new int[numStates];
+		List<Integer> caps = new ArrayList<Integer>();
+		if(numHands == 1) {
+			int numSlots = maxHeight;
+			long slotMask = (numSlots == 64 ? -1L : (1L << numSlots) - 1);
+			Arrays.fill(this.groups, -1);
+			for(int s=0; s<numStates; s++) {
+				if(this.groups[s] != -1) {
+					continue;
+				}
+				int size = 0;
+				long mask = this.graph.mask(s);
+				do {
+					this.groups[this.graph.rank(mask)] = this.numGroups;
+					size++;
+					mask = ((mask >>> 1) | (mask << (numSlots - 1))) & slotMask;
+				} while(mask != this.graph.mask(s));
+				caps.add(size - 1);
+				this.numGroups++;
+			}
+		} else {
+			for(int s=0; s<numStates; s++) {
+				this.groups[s] = this.numGroups++;
+				caps.add(1);
+			}
+		}
+		this.groupCaps = new int[this.numGroups];
+		for(int g=0; g<this.numGroups; g++) {
+			this.groupCaps[g] = caps.get(g);
+		}
+	}
+
+	public StateGraph graph() {
+		return this.graph;
+	}
+
+	// read progress from a checkpoint file (if there is one yet), and keep writing to it
+	public void useCheckpointFile(String fileName) throws CheckpointException {
+		this.checkpointFile = Paths.get(fileName);
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(this.checkpointFile);
+		} catch(NoSuchFileException e) {
+			return;
+		} catch(IOException e) {
+			throw new CheckpointException("couldn't read checkpoint file `" + fileName + "': " + e.getMessage());
+		}
+		String header = "graph " + this.graph.numBalls() + " " + this.graph.maxHeight() + " " + this.graph.numHands();
+		if(lines.size() < 2 || !lines.get(1).equals(header)) {
+			throw new CheckpointException("checkpoint file `" + fileName + "' isn't for a search with " + this.graph.numBalls() + " balls, max height " + this.graph.maxHeight() + " and " + this.graph.numHands() + " hand(s)");
+		}
+		try {
+			for(String line : lines.subList(2, lines.size())) {
+				if(line.startsWith("best ")) {
+					this.bestLength = Integer.parseInt(line.substring(5));
+				} else if(line.startsWith("walk ")) {
+					String[] edges = line.substring(5).split(" ");
+					int[] walk = new int[edges.length];
+					for(int i=0; i<walk.length; i++) {
+						walk[i] = Integer.parseInt(edges[i]);
+						if(walk[i] < 0 || walk[i] >= this.graph.numEdges()) {
+							throw new NumberFormatException("no edge " + walk[i]);
+						}
+					}
+					this.bestWalks.put(line.substring(5), walk);
+				} else if(line.startsWith("finished ")) {
+					String key = line.substring(9);
+					this.finished.add(key);
+					if(!key.equals(ALL_FINISHED)) {
+						this.resumeDepth = Math.max(this.resumeDepth, key.split(" ").length - 1);
+					}
+				} else if(!line.isEmpty()) {
+					throw new NumberFormatException("unknown line `" + line + "'");
+				}
+			}
+		} catch(NumberFormatException e) {
+			throw new CheckpointException("couldn't read checkpoint file `" + fileName + "': " + e.getMessage());
+		}
+		Util.printf("resuming from checkpoint: longest so far " + this.bestLength + " steps, " + this.finished.size() + " subtrees finished", Util.DebugLevel.DEBUG);
+	}
+
+	// run the search on the common pool, writing checkpoints along the way if there's a file for them
+	public void search() {
+		Thread checkpointer = null;
+		if(this.checkpointFile != null) {
+			checkpointer = new Thread(() -> {
+				try {
+					while(true) {
+						Thread.sleep(CHECKPOINT_MILLIS);
+						this.writeCheckpoint();
+					}
+				} catch(InterruptedException e) {
+					return;
+				}
+			});
+			checkpointer.setDaemon(true);
+			checkpointer.start();
+		}
+		if(!this.isFinished(ALL_FINISHED)) {
+			ForkJoinPool.commonPool().invoke(new AllStarts());
+		}
+		if(checkpointer != null) {
+			checkpointer.interrupt();
+			this.writeCheckpoint();
+		}
+	}
+
+	// period of the longest prime patterns, in beats
+	public int longestPeriod() {
+		return this.bestLength * this.graph.beatsPerStep();
+	}
+
+	// the longest prime patterns, each in its lexicographically largest rotation, largest first
+	public synchronized List<Siteswap> longestPatterns() {
+		List<int[]> walks = new ArrayList<int[]>(this.bestWalks.values());
+		walks.sort((w1, w2) -> this.graph.compareWalks(w2, 0, w1, 0, this.bestLength));
+		List<Siteswap> out = new ArrayList<Siteswap>();
+		for(int[] walk : walks) {
+			out.add(this.graph.walkSiteswap(walk, 0, this.bestLength));
+		}
+		return out;
+	}
+
+	// progress
+
+	private synchronized void addCycle(int[] walk, int length) {
+		if(length < this.bestLength) {
+			return;
+		}
+		int from = this.graph.largestRotation(walk, length);
+		int[] rotated = new int[length];
+		for(int i=0; i<length; i++) {
+			rotated[i] = walk[(from + i) % length];
+		}
+		Siteswap ss = this.graph.walkSiteswap(rotated, 0, length);
+		if(!ss.isPrime()) {
+			Util.printf("ERROR: found non-prime siteswap " + ss.toString(), Util.DebugLevel.ERROR);
+			return;
+		}
+		if(length > this.bestLength) {
+			this.bestLength = length;
+			this.bestWalks.clear();
+			Util.printf("longest so far: " + ss.toString(), Util.DebugLevel.DEBUG);
+		}
+		this.bestWalks.put(key(rotated, length), rotated);
+	}
+
+	private synchronized boolean isFinished(String key) {
+		return this.finished.contains(key);
+	}
+
+	// mark a subtree as finished, which covers the ones under it
+	private synchronized void markFinished(String key, List<String> children) {
+		this.finished.add(key);
+		this.finished.removeAll(children);
+	}
+
+	private synchronized void writeCheckpoint() {
+		Path temp = this.checkpointFile.resolveSibling(this.checkpointFile.getFileName() + ".tmp");
+		try(PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp))) {
+			out.println("longest prime search checkpoint");
+			out.println("graph " + this.graph.numBalls() + " " + this.graph.maxHeight() + " " + this.graph.numHands());
+			out.println("best " + this.bestLength);
+			for(String walk : this.bestWalks.keySet()) {
+				out.println("walk " + walk);
+			}
+			for(String key : this.finished) {
+				out.println("finished " + key);
+			}
+		} catch(IOException e) {
+			Util.printf("ERROR: couldn't write checkpoint file `" + temp + "': " + e.getMessage(), Util.DebugLevel.ERROR);
+			return;
+		}
+		try {
+			Files.move(temp, this.checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(IOException e) {
+			Util.printf("ERROR: couldn't write checkpoint file `" + this.checkpointFile + "': " + e.getMessage(), Util.DebugLevel.ERROR);
+			return;
+		}
+		Util.printf("checkpoint: longest so far " + this.bestLength + " steps, " + this.finished.size() + " subtrees finished", Util.DebugLevel.DEBUG);
+	}
+
+	// a subtree is named by its start and the edges taken from there
+	private static String key(int[] walk, int length) {
+		StringBuilder out = new StringBuilder();
+		for(int i=0; i<length; i++) {
+			if(i > 0) {
+				out.append(' ');
+			}
+			out.append(walk[i]);
+		}
+		return out.toString();
+	}
+
+	private static String key(int start, int[] walk, int length) {
+		return (length == 0 ? "" + start : start + " " + key(walk, length));
+	}
+
+	// tasks
+
+	private class AllStarts extends RecursiveAction {
+		protected void compute() {
+			List<Subtree> starts = new ArrayList<Subtree>();
+			List<String> keys = new ArrayList<String>();
+			for(int s=0; s<graph.numStates(); s++) {
+				starts.add(new Subtree(s, new int[0]));
+				keys.add("" + s);
+			}
+			invokeAll(starts);
+			markFinished(ALL_FINISHED, keys);
+		}
+	}
+
+	// the search through every walk from a start that begins with the given edges
+	private class Subtree extends RecursiveAction {
+		int start;
+		int[] prefix;
+		Start info; // worked out by the task for the start itself, then passed on
+
+		Subtree(int start, int[] prefix) {
+			this.start = start;
+			this.prefix = prefix;
+		}
+
+		protected void compute() {
+			String key = key(this.start, this.prefix, this.prefix.length);
+			if(isFinished(key)) {
+				return;
+			}
+			if(this.info == null) {
+				this.info = new Start(this.start);
+			}
+			Walk walk = new Walk(this.info);
+			for(int e : this.prefix) {
+				walk.step(e);
+			}
+			List<String> childKeys = new ArrayList<String>();
+			if(walk.bound() < bestLength) {
+				// nothing under here can be long enough
+			} else if(this.prefix.length < SPLIT_DEPTH && walk.bound() - walk.length >= MIN_SPLIT_STATES) {
+				List<Subtree> children = new ArrayList<Subtree>();
+				int state = walk.current();
+				int end = graph.edgeStart(state) + graph.outDegree(state);
+				for(int e=graph.edgeStart(state); e<end; e++) {
+					int target = graph.edgeTarget(e);
+					if(target == this.start) {
+						walk.close(e);
+					} else if(walk.canEnter(target)) {
+						int[] childPrefix = Arrays.copyOf(this.prefix, this.prefix.length + 1);
+						childPrefix[this.prefix.length] = e;
+						Subtree child = new Subtree(this.start, childPrefix);
+						child.info = this.info;
+						children.add(child);
+						childKeys.add(key(this.start, childPrefix, childPrefix.length));
+					}
+				}
+				invokeAll(children);
+			} else {
+				walk.search();
+			}
+			markFinished(key, childKeys);
+		}
+	}
+
+	// the states that can be on a cycle whose lowest-numbered state is start, which are the
+	// ones above it that can be reached from it and get back to it
+	private class Start {
+		int start;
+		boolean[] allowed;
+		int numAllowed;
+		int[] waysIn; // number of allowed distinct predecessors of each state
+		int[] waysOut; // number of allowed distinct successors of each state
+		int[] groupSizes; // number of allowed states in each shift cycle
+		int bound; // the longest a cycle through start can be
+
+		Start(int start) {
+			this.start = start;
+			int numStates = graph.numStates();
+			boolean[] reached = this.reach(successorOffsets, successors);
+			boolean[] reachedBack = this.reach(predecessorOffsets, predecessors);
+			this.allowed = new boolean[numStates];
+			this.groupSizes = new int[numGroups];
+			for(int s=start; s<numStates; s++) {
+				if(reached[s] && reachedBack[s]) {
+					this.allowed[s] = true;
+					this.numAllowed++;
+					this.groupSizes[groups[s]]++;
+				}
+			}
+			this.waysIn = new int[numStates];
+			this.waysOut = new int[numStates];
+			for(int s=start; s<numStates; s++) {
+				if(this.allowed[s]) {
+					for(int i=successorOffsets[s]; i<successorOffsets[s + 1]; i++) {
+						if(this.allowed[successors[i]]) {
+							this.waysIn[successors[i]]++;
+							this.waysOut[s]++;
+						}
+					}
+				}
+			}
+			for(int g=0; g<numGroups; g++) {
+				this.bound += Math.min(this.groupSizes[g], groupCaps[g]);
+			}
+		}
+
+		// states at or above start that can be reached from it along the given neighbours
+		private boolean[] reach(int[] offsets, int[] neighbours) {
+			boolean[] reached = new boolean[graph.numStates()];
+			int[] queue = new int[graph.numStates()];
+			int size = 0;
+			reached[this.start] = true;
+			queue[size++] = this.start;
+			for(int q=0; q<size; q++) {
+				int s = queue[q];
+				for(int i=offsets[s]; i<offsets[s + 1]; i++) {
+					int t = neighbours[i];
+					if(t >= this.start && !reached[t]) {
+						reached[t] = true;
+						queue[size++] = t;
+					}
+				}
+			}
+			return reached;
+		}
+	}
+
+	// depth-first search for cycles through a start, from a walk that's partway there
+	private class Walk {
+		Start info;
+		boolean[] onWalk;
+		int[] waysIn; // ways into each state that haven't been passed by
+		int[] waysOut; // ways out of each state to states that aren't on the walk yet (or the start)
+		int[] groupDead; // allowed states off the walk in each shift cycle that can't be used any more
+		int[] groupOnWalk; // states on the walk in each shift cycle
+		int groupsOnWalk; // shift cycles with a state on the walk
+		int groupBound; // sum over shift cycles of the most states a cycle can still use from each
+		int[] walkStates; // state before each step
+		int[] walkEdges; // edge taken at each step
+		int length; // number of states on the walk, which is the length of the cycle it closes
+
+		Walk(Start info) {
+			this.info = info;
+			this.onWalk = new boolean[graph.numStates()];
+			this.waysIn = Arrays.copyOf(info.waysIn, info.waysIn.length);
+			this.waysOut = Arrays.copyOf(info.waysOut, info.waysOut.length);
+			this.groupDead = new int[numGroups];
+			this.groupOnWalk = new int[numGroups];
+			this.groupBound = info.bound;
+			this.walkStates = new int[info.numAllowed + 1];
+			this.walkEdges = new int[info.numAllowed + 1];
+			this.onWalk[info.start] = true;
+			this.groupOnWalk[groups[info.start]]++;
+			this.groupsOnWalk = 1;
+			this.walkStates[0] = info.start;
+			this.length = 1;
+		}
+
+		int current() {
+			return this.walkStates[this.length - 1];
+		}
+
+		// the longest any cycle this walk can close can be
+		int bound() {
+			if(this.groupsOnWalk == 1) {
+				// the cycle could be the shift cycle it's on so far
+				int g = groups[this.info.start];
+				return Math.max(this.groupBound, this.info.groupSizes[g] - this.groupDead[g]);
+			}
+			return this.groupBound;
+		}
+
+		boolean canEnter(int state) {
+			return this.info.allowed[state] && !this.onWalk[state] && !this.isDead(state);
+		}
+
+		private boolean isDead(int state) {
+			return !this.onWalk[state] && (this.waysIn[state] == 0 || this.waysOut[state] == 0);
+		}
+
+		// change the ways in and out of an allowed state, keeping track of whether it's dead
+		private void changeWays(int state, int in, int out) {
+			boolean wasDead = this.isDead(state);
+			this.waysIn[state] += in;
+			this.waysOut[state] += out;
+			boolean dead = this.isDead(state);
+			if(dead != wasDead) {
+				int g = groups[state];
+				this.groupBound -= Math.min(this.info.groupSizes[g] - this.groupDead[g], groupCaps[g]);
+				this.groupDead[g] += (dead ? 1 : -1);
+				this.groupBound += Math.min(this.info.groupSizes[g] - this.groupDead[g], groupCaps[g]);
+			}
+		}
+
+		void step(int edge) {
+			int from = this.current();
+			int to = graph.edgeTarget(edge);
+			this.onWalk[to] = true;
+			if(this.groupOnWalk[groups[to]]++ == 0) {
+				this.groupsOnWalk++;
+			}
+			// leaving from by this edge passes by its other ways out
+			for(int i=successorOffsets[from]; i<successorOffsets[from + 1]; i++) {
+				if(this.info.allowed[successors[i]]) {
+					this.changeWays(successors[i], -1, 0);
+				}
+			}
+			// and nothing else can go to where it went
+			for(int i=predecessorOffsets[to]; i<predecessorOffsets[to + 1]; i++) {
+				if(this.info.allowed[predecessors[i]]) {
+					this.changeWays(predecessors[i], 0, -1);
+				}
+			}
+			this.walkEdges[this.length - 1] = edge;
+			this.walkStates[this.length] = to;
+			this.length++;
+		}
+
+		void unstep() {
+			this.length--;
+			int to = this.walkStates[this.length];
+			int from = this.current();
+			for(int i=predecessorOffsets[to]; i<predecessorOffsets[to + 1]; i++) {
+				if(this.info.allowed[predecessors[i]]) {
+					this.changeWays(predecessors[i], 0, 1);
+				}
+			}
+			for(int i=successorOffsets[from]; i<successorOffsets[from + 1]; i++) {
+				if(this.info.allowed[successors[i]]) {
+					this.changeWays(successors[i], 1, 0);
+				}
+			}
+			if(--this.groupOnWalk[groups[to]] == 0) {
+				this.groupsOnWalk--;
+			}
+			this.onWalk[to] = false;
+		}
+
+		void close(int edge) {
+			if(this.length >= bestLength) {
+				this.walkEdges[this.length - 1] = edge;
+				addCycle(this.walkEdges, this.length);
+			}
+		}
+
+		void search() {
+			int state = this.current();
+			int end = graph.edgeStart(state) + graph.outDegree(state);
+			for(int e=graph.edgeStart(state); e<end; e++) {
+				int target = graph.edgeTarget(e);
+				if(target == this.info.start) {
+					this.close(e);
+				} else if(this.canEnter(target)) {
+					this.step(e);
+					if(this.bound() >= bestLength) {
+						this.searchResumed();
+					}
+					this.unstep();
+				}
+			}
+		}
+
+		// subtrees finished in an earlier run can be deeper than the ones this run splits off
+		private void searchResumed() {
+			if(this.length - 1 > resumeDepth) {
+				this.search();
+				return;
+			}
+			String key = key(this.info.start, this.walkEdges, this.length - 1);
+			if(isFinished(key)) {
+				return;
+			}
+			this.search();
+			List<String> childKeys = new ArrayList<String>();
+			int state = this.current();
+			int end = graph.edgeStart(state) + graph.outDegree(state);
+			for(int e=graph.edgeStart(state); e<end; e++) {
+				this.walkEdges[this.length - 1] = e;
+				childKeys.add(key(this.info.start, this.walkEdges, this.length));
+			}
+			markFinished(key, childKeys);
+		}
+	}
+
+}
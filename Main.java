@@ -2,7 +2,15 @@ package siteswapsuite;
 
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Random;
+import java.util.function.Consumer;
 import java.lang.NumberFormatException;
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.NoSuchFileException;
 
 public class Main {
 
@@ -16,22 +24,59 @@ public class Main {
 		}
 	}
 
+	static class BatchFileError extends SiteswapException {
+		String message;
+		BatchFileError(String message) {
+			this.message = "ERROR: " + message;
+		}
+		public String getMessage() {
+			return this.message;
+		}
+	}
+
 	// cmdline tokens
 	static enum GlobalOption {
 		ENABLE_DEBUG(false, "-d", "--debug"),
 		// transition options
 		MIN_TRANSITION_LENGTH(true, "-l", "--minTransitionLength"),
+		MAX_TRANSITION_THROW(true, "-t", "--maxTransitionThrow"),
+		FORBID_TRANSITION_THROW(true, "-x", "--forbidTransitionThrow"),
+		NO_MULTIPLEX_TRANSITIONS(false, "-u", "--noMultiplexTransitions"),
+		ALTERNATE_HANDS(false, "-a", "--alternateHands"),
 		MAX_TRANSITIONS(true, "-m", "--maxTransitions"),
 		ALLOW_EXTRA_SQUEEZE_CATCHES(false, "-q", "--allowExtraSqueezeCatches"),
 		GENERATE_BALL_ANTIBALL_PAIRS(false, "-g", "--generateBallAntiballPairs"),
 		UN_ANTITOSSIFY_TRANSITIONS(false, "-A", "--unAntitossifyTransitions"),
 		DISPLAY_GENERAL_TRANSITION(false, "-G", "--displayGeneralTransition"),
+		COUNT_TRANSITIONS(false, "-c", "--countTransitions"),
+		RANDOM_TRANSITIONS(true, "-r", "--randomTransitions"),
+		THREADS(true, "-T", "--threads"),
+		SHORTEST_TRANSITIONS(false, "-S", "--shortestTransitions"),
+		BEST_TRANSITIONS_BY(true, "-k", "--bestTransitionsBy", true),
+		INCREASING_LENGTHS(false, "-L", "--increasingLengths"),
+		TRANSITION_CACHE_FILE(true, "-F", "--transitionCacheFile", true),
+		// pattern generation options
+		ENUMERATE(false, "-e", "--enumerate"),
+		PRIME_ONLY(false, "-o", "--primeOnly"),
+		NUM_BALLS(true, "-b", "--numBalls"),
+		PERIOD(true, "-p", "--period"),
+		MAX_HEIGHT(true, "-M", "--maxHeight"),
+		NUM_HANDS(true, "-n", "--numHands"),
+		LONGEST_PRIME(false, "-E", "--longestPrime"),
+		CHECKPOINT_FILE(true, "-C", "--checkpointFile", true),
+		// batch validation
+		VALIDATE_BATCH(true, "-V", "--validateBatch", true),
 		INVALID_TOKEN(false, null, null);
 		boolean requiresParam;
+		boolean stringParam; // the param isn't an integer
 		String shortForm;
 		String longForm;
 		GlobalOption(boolean requiresParam, String shortForm, String longForm) {
+			this(requiresParam, shortForm, longForm, false);
+		}
+		GlobalOption(boolean requiresParam, String shortForm, String longForm, boolean stringParam) {
 			this.requiresParam = requiresParam;
+			this.stringParam = stringParam;
 			this.shortForm = shortForm;
 			this.longForm = longForm;
 		}
@@ -58,7 +103,7 @@ public class Main {
 		// info printing settings
 		boolean printNumBalls = false;
 		boolean printState = false;
-		boolean printOrbits;
+		boolean printOrbits = false;
 		boolean printDifficulty = false;
 		boolean printValidity = false;
 		boolean printPrimality = false;
@@ -132,6 +177,9 @@ public class Main {
 					case DIFFICULTY:
 						this.printDifficulty = true;
 						break;
+					case ORBITS:
+						this.printOrbits = true;
+						break;
 					case INVALID_TOKEN:
 						throw new ParseError("unrecognized input option: `" + str + "'");
 					default:
@@ -192,6 +240,21 @@ public class Main {
 		abstract void displayInputInfo();
 		abstract void displayComputedInfo();
 
+		// each orbit of the modified pattern on its own line, with only its tosses, and its number of balls
+		void displayOrbits() {
+			Siteswap ss = this.modifiedSiteswap.siteswap;
+			Util.printf(" orbits:", Util.DebugLevel.INFO);
+			for(int[] orbit : ss.orbits()) {
+				String notated;
+				try {
+					notated = NotatedSiteswap.assemble(ss.orbitPattern(orbit), this.modifiedSiteswap.notationType()).print();
+				} catch(IncompatibleNotationException e) {
+					notated = ss.orbitPattern(orbit).toString();
+				}
+				Util.printf("  " + notated + "  (capacity " + ss.orbitNumBalls(orbit) + ")", Util.DebugLevel.INFO);
+			}
+		}
+
 		// types of operation
 		static enum InputOption {
 			// state: min ss length
@@ -205,6 +268,7 @@ public class Main {
 			VALIDITY(false, "-v", "--validity"),
 			PRIMALITY(false, "-P", "--primality"),
 			DIFFICULTY(false, "-d", "--difficulty"),
+			ORBITS(false, "-o", "--orbits"),
 			// siteswap operations
 			INVERT(false, "-V", "--invert"),
 			SPRING(false, "-p", "--spring"),
@@ -313,16 +377,18 @@ public class Main {
 				Util.printf(" state:      " + this.notatedState.state, Util.DebugLevel.INFO);
 			}
 			if(this.printOrbits) {
-				Util.printf(" orbits:     ", Util.DebugLevel.INFO);
-				for(Siteswap orbit : this.modifiedSiteswap.siteswap.getOrbits()) {
-					Util.printf(orbit.toString(), Util.DebugLevel.INFO);
-				}
+				this.displayOrbits();
 			}
 			if(this.printDifficulty) {
 				Util.printf(" difficulty: " + this.modifiedSiteswap.siteswap.difficulty(), Util.DebugLevel.INFO);
 			}
 			if(this.printPrimality) {
-				Util.printf(" primality:  " + this.modifiedSiteswap.siteswap.isPrime(), Util.DebugLevel.INFO);
+				int[] repeated = this.modifiedSiteswap.siteswap.firstRepeatedStates();
+				if(repeated == null) {
+					Util.printf(" primality:  true", Util.DebugLevel.INFO);
+				} else {
+					Util.printf(" primality:  false (state at beat " + repeated[0] + " comes back at beat " + repeated[1] + ")", Util.DebugLevel.INFO);
+				}
 			}
 		}
 
@@ -389,16 +455,18 @@ public class Main {
 				Util.printf(" siteswap:      " + this.notatedSiteswap, Util.DebugLevel.INFO);
 			}
 			if(this.printOrbits) {
-				Util.printf(" orbits:", Util.DebugLevel.INFO);
-				for(Siteswap orbit : this.modifiedSiteswap.siteswap.getOrbits()) {
-					Util.printf(orbit.toString(), Util.DebugLevel.INFO);
-				}
+				this.displayOrbits();
 			}
 			if(this.printDifficulty) {
 				Util.printf(" difficulty: " + this.modifiedSiteswap.siteswap.difficulty(), Util.DebugLevel.INFO);
 			}
 			if(this.printPrimality) {
-				Util.printf(" primality:  " + this.modifiedSiteswap.siteswap.isPrime(), Util.DebugLevel.INFO);
+				int[] repeated = this.modifiedSiteswap.siteswap.firstRepeatedStates();
+				if(repeated == null) {
+					Util.printf(" primality:  true", Util.DebugLevel.INFO);
+				} else {
+					Util.printf(" primality:  false (state at beat " + repeated[0] + " comes back at beat " + repeated[1] + ")", Util.DebugLevel.INFO);
+				}
 			}
 		}
 	}
@@ -414,16 +482,38 @@ public class Main {
 		List<String> globalArgs = new LinkedList<String>();
 		// [actual settings]
 		int minTransitionLength = 0;
+		TransitionSearch.Constraints transitionConstraints = new TransitionSearch.Constraints();
 		int maxTransitions = -1;
 		boolean displayGeneralTransition = false;
 		boolean allowExtraSqueezeCatches = false;
 		boolean generateBallAntiballPairs = false;
 		boolean unAntitossifyTransitions = false;
+		boolean countTransitions = false;
+		int randomTransitions = 0;
+		int numThreads = 1;
+		boolean shortestTransitions = false;
+		TransitionCost bestTransitionsBy = null; // null to list transitions in order
+		boolean increasingLengths = false;
+		String transitionCacheFile = null;
+		// pattern generation options
+		boolean enumerate = false;
+		boolean primeOnly = false;
+		int numBalls = -1;
+		int period = -1;
+		int maxHeight = -1;
+		int numHands = 1;
+		boolean longestPrime = false;
+		String checkpointFile = null;
+		// batch validation
+		String validateBatchFile = null;
 
 		// output objects
 		CompatibleNotatedSiteswapPair inputPatterns; // for parsing inputs
 		CompatibleNotatedSiteswapPair modifiedInputPatterns; // for computing transition
 		ContextualizedNotatedTransitionList transitions;
+		List<NotatedSiteswap> randomTransitionList;
+		SiteswapGenerator generator;
+		LongestPrimeSearch longestPrimeSearch;
 
 		// assemble a new command object from a list of cmdline args
 		CommandObject(String[] args) throws SiteswapException {
@@ -453,9 +543,35 @@ public class Main {
 			// parse transition args, if any
 			this.parseGlobalArgs();
 			// parse args of each input object
-			this.inputs[0].parseArgs();
-			if(this.numInputs == 2) {
-				this.inputs[1].parseArgs();
+			for(int i=0; i<this.numInputs; i++) {
+				this.inputs[i].parseArgs();
+			}
+			if(this.enumerate) {
+				if(this.numInputs > 0) {
+					throw new ParseError("option `--enumerate' does not take any inputs");
+				}
+				if(this.numBalls == -1 || this.period == -1 || this.maxHeight == -1) {
+					throw new ParseError("option `--enumerate' requires `--numBalls', `--period' and `--maxHeight'");
+				}
+			}
+			if(this.primeOnly && !this.enumerate) {
+				throw new ParseError("option `--primeOnly' requires `--enumerate'");
+			}
+			if(this.longestPrime) {
+				if(this.numInputs > 0 || this.enumerate) {
+					throw new ParseError("option `--longestPrime' can't be used with inputs or `--enumerate'");
+				}
+				if(this.numBalls == -1 || this.maxHeight == -1) {
+					throw new ParseError("option `--longestPrime' requires `--numBalls' and `--maxHeight'");
+				}
+			} else if(this.checkpointFile != null) {
+				throw new ParseError("option `--checkpointFile' requires `--longestPrime'");
+			}
+			if(this.transitionCacheFile != null && this.numInputs != 2) {
+				throw new ParseError("option `--transitionCacheFile' requires two inputs");
+			}
+			if(this.validateBatchFile != null && (this.numInputs > 0 || this.enumerate || this.longestPrime)) {
+				throw new ParseError("option `--validateBatch' can't be used with inputs, `--enumerate' or `--longestPrime'");
 			}
 		}
 
@@ -463,20 +579,24 @@ public class Main {
 			int i = 0;
 			String str;
 			int intArg = 0;
+			String strArg = null;
 			GlobalOption opt;
 			while(i < this.globalArgs.size()) {
 				str = this.globalArgs.get(i);
 				opt = GlobalOption.fromStr(str);
 				if(opt.requiresParam) {
 					if(i + 1 < this.globalArgs.size()) {
-						try {
-							intArg = Integer.parseInt(this.globalArgs.get(i+1));
-						} catch(NumberFormatException e) {
-							throw new ParseError("option `" + str + "' requires integer argument; got `" + this.globalArgs.get(i+1) + "'");
+						strArg = this.globalArgs.get(i+1);
+						if(!opt.stringParam) {
+							try {
+								intArg = Integer.parseInt(strArg);
+							} catch(NumberFormatException e) {
+								throw new ParseError("option `" + str + "' requires integer argument; got `" + strArg + "'");
+							}
 						}
 						i++;
 					} else {
-						throw new ParseError("option `" + str + "' requires integer argument");
+						throw new ParseError("option `" + str + "' requires " + (opt.stringParam ? "an" : "integer") + " argument");
 					}
 				}
 				switch(opt) {
@@ -486,6 +606,18 @@ public class Main {
 					case MIN_TRANSITION_LENGTH:
 						this.minTransitionLength = intArg;
 						break;
+					case MAX_TRANSITION_THROW:
+						this.transitionConstraints.setMaxHeight(intArg);
+						break;
+					case FORBID_TRANSITION_THROW:
+						this.transitionConstraints.forbidHeight(intArg);
+						break;
+					case NO_MULTIPLEX_TRANSITIONS:
+						this.transitionConstraints.setNoMultiplex();
+						break;
+					case ALTERNATE_HANDS:
+						this.transitionConstraints.setAlternateHands();
+						break;
 					case MAX_TRANSITIONS:
 						this.maxTransitions = intArg;
 						break;
@@ -501,17 +633,92 @@ public class Main {
 					case UN_ANTITOSSIFY_TRANSITIONS:
 						this.unAntitossifyTransitions = true;
 						break;
+					case COUNT_TRANSITIONS:
+						this.countTransitions = true;
+						break;
+					case RANDOM_TRANSITIONS:
+						this.randomTransitions = intArg;
+						break;
+					case THREADS:
+						if(intArg < 1) {
+							throw new ParseError("option `" + str + "' requires a positive number of threads");
+						}
+						this.numThreads = intArg;
+						break;
+					case SHORTEST_TRANSITIONS:
+						this.shortestTransitions = true;
+						break;
+					case INCREASING_LENGTHS:
+						this.increasingLengths = true;
+						break;
+					case BEST_TRANSITIONS_BY:
+						this.bestTransitionsBy = TransitionCost.fromStr(strArg);
+						if(this.bestTransitionsBy == null) {
+							throw new ParseError("option `" + str + "' requires one of `sum', `max' or `crossings'; got `" + strArg + "'");
+						}
+						break;
+					case ENUMERATE:
+						this.enumerate = true;
+						break;
+					case PRIME_ONLY:
+						this.primeOnly = true;
+						break;
+					case NUM_BALLS:
+						this.numBalls = intArg;
+						break;
+					case PERIOD:
+						this.period = intArg;
+						break;
+					case MAX_HEIGHT:
+						this.maxHeight = intArg;
+						break;
+					case NUM_HANDS:
+						this.numHands = intArg;
+						break;
+					case LONGEST_PRIME:
+						this.longestPrime = true;
+						break;
+					case CHECKPOINT_FILE:
+						this.checkpointFile = strArg;
+						break;
+					case VALIDATE_BATCH:
+						this.validateBatchFile = strArg;
+						break;
+					case TRANSITION_CACHE_FILE:
+						this.transitionCacheFile = strArg;
+						break;
 					default:
 						throw new ParseError("unrecognized transition option: `" + str + "'");
 				}
 				i++;
 			}
+			if(this.increasingLengths) {
+				if(this.maxTransitions == -1) {
+					throw new ParseError("option `--increasingLengths' requires `--maxTransitions'");
+				}
+				if(this.countTransitions || this.randomTransitions > 0 || this.bestTransitionsBy != null) {
+					throw new ParseError("option `--increasingLengths' can't be used with `--countTransitions', `--randomTransitions' or `--bestTransitionsBy'");
+				}
+			}
+			// only the transitions listed from the general transition are built on several threads
+			if(this.numThreads > 1 && (this.shortestTransitions || !this.transitionConstraints.isEmpty() || this.bestTransitionsBy != null || this.increasingLengths)) {
+				throw new ParseError("option `--threads' can't be used with `--shortestTransitions', `--bestTransitionsBy', `--increasingLengths' or transition constraints");
+			}
 		}
 
 		// parse input notation, create siteswap/state objects, apply operations, find transition(s)
-		void execute() throws InvalidNotationException, IncompatibleNotationException, IncompatibleNumberOfHandsException, ImpossibleTransitionException {
+		void execute() throws InvalidNotationException, IncompatibleNotationException, IncompatibleNumberOfHandsException, ImpossibleTransitionException, StateGraphException, CheckpointException {
 			switch(this.numInputs) {
 				case 0:
+					if(this.enumerate) {
+						// build the state graph; the search itself runs while printing
+						this.generator = new SiteswapGenerator(this.numBalls, this.period, this.maxHeight, this.numHands);
+					} else if(this.longestPrime) {
+						this.longestPrimeSearch = new LongestPrimeSearch(this.numBalls, this.maxHeight, this.numHands);
+						if(this.checkpointFile != null) {
+							this.longestPrimeSearch.useCheckpointFile(this.checkpointFile);
+						}
+					}
 					break;
 				case 1:
 					try {
@@ -553,23 +760,152 @@ public class Main {
 						throw e;
 					}
 					// compute transitions between resulting patterns
+					if(this.transitionCacheFile != null) {
+						TransitionCache.shared().useFile(this.transitionCacheFile);
+					}
 					try {
-						this.transitions = new ContextualizedNotatedTransitionList(this.modifiedInputPatterns, this.minTransitionLength, this.maxTransitions, this.allowExtraSqueezeCatches, this.generateBallAntiballPairs);
+						// when only counting or sampling, don't list any
+						int numToList = (this.countTransitions || this.randomTransitions > 0 ? 0 : this.maxTransitions);
+						this.transitions = new ContextualizedNotatedTransitionList(this.modifiedInputPatterns, this.minTransitionLength, numToList, this.allowExtraSqueezeCatches, this.generateBallAntiballPairs, this.numThreads, this.shortestTransitions, this.transitionConstraints, this.bestTransitionsBy, this.increasingLengths);
+						if(this.randomTransitions > 0) {
+							this.randomTransitionList = this.transitions.randomTransitionList(this.randomTransitions, new Random());
+						}
 					} catch(ImpossibleTransitionException e) {
 						throw e;
+					} finally {
+						// the general transition is in memory by now
+						TransitionCache.shared().closeFile();
 					}
 					break;
 			}
 		}
 
+		// notation for a generated pattern, in sync notation if it has two hands
+		String notateGenerated(Siteswap ss) {
+			if(this.numHands == 2) {
+				try {
+					return NotatedSiteswap.assemble(ss, SiteswapNotation.SYNCHRONOUS).print();
+				} catch(IncompatibleNotationException e) {
+					return ss.toString();
+				}
+			}
+			return NotatedSiteswap.assembleAutomatic(ss).print();
+		}
+
+		// number of lines read from the batch file before they're checked together
+		static final int BATCH_CHUNK_SIZE = 1 << 16;
+
+		// print the valid siteswaps out of those listed in the batch file (or stdin, for `-'), one per line.
+		// the lines are read a chunk at a time, and the vanilla ones in a chunk are checked together in a
+		// SiteswapBatch, while any others are parsed and checked on their own. lines that can't be parsed
+		// count as invalid, and don't stop the rest from being checked
+		void validateBatch() throws BatchFileError {
+			SiteswapBatch batch = new SiteswapBatch();
+			String[] lines = new String[BATCH_CHUNK_SIZE];
+			int[] batchIndices = new int[BATCH_CHUNK_SIZE]; // -1 for the ones not in the batch
+			boolean[] valid = new boolean[BATCH_CHUNK_SIZE];
+			int numLines = 0;
+			int numChecked = 0;
+			int numValid = 0;
+			int numUnreadable = 0;
+			try(BufferedReader reader = (this.validateBatchFile.equals("-") ? new BufferedReader(new InputStreamReader(System.in)) : Files.newBufferedReader(Paths.get(this.validateBatchFile)))) {
+				Util.printf("Valid siteswaps:", Util.DebugLevel.INFO);
+				String line;
+				while(true) {
+					line = reader.readLine();
+					if(line != null) {
+						line = line.trim();
+						if(line.isEmpty()) {
+							continue;
+						}
+						lines[numLines] = line;
+						batchIndices[numLines] = addVanilla(batch, line);
+						if(batchIndices[numLines] == -1) {
+							try {
+								valid[numLines] = NotatedSiteswap.parse(line, -1, 0).siteswap().isValid();
+							} catch(InvalidSiteswapNotationException | IncompatibleNumberOfHandsException e) {
+								Util.printf(e.getMessage(), Util.DebugLevel.DEBUG);
+								valid[numLines] = false;
+								numUnreadable++;
+							}
+						}
+						numLines++;
+					}
+					if(numLines == BATCH_CHUNK_SIZE || (line == null && numLines > 0)) {
+						boolean[] batchValid = batch.areValid();
+						for(int i=0; i<numLines; i++) {
+							if(batchIndices[i] != -1) {
+								valid[i] = batchValid[batchIndices[i]];
+							}
+							if(valid[i]) {
+								Util.printf(lines[i], Util.DebugLevel.INFO);
+								numValid++;
+							}
+						}
+						numChecked += numLines;
+						numLines = 0;
+						batch.clear();
+					}
+					if(line == null) {
+						break;
+					}
+				}
+			} catch(NoSuchFileException e) {
+				throw new BatchFileError("no such file `" + this.validateBatchFile + "'");
+			} catch(IOException e) {
+				throw new BatchFileError("couldn't read siteswaps from `" + this.validateBatchFile + "': " + e.getMessage());
+			}
+			Util.printf("(" + numValid + " of " + numChecked + " valid" + (numUnreadable > 0 ? ", " + numUnreadable + " not siteswap notation" : "") + ")", Util.DebugLevel.INFO);
+		}
+
+		// add a pattern written with nothing but single-digit or -letter throws to the batch,
+		// giving its index there, or -1 if it's written any other way
+		static int addVanilla(SiteswapBatch batch, String notation) {
+			for(int i=0; i<notation.length(); i++) {
+				if(SiteswapNotation.vanillaThrowHeight(notation.charAt(i)) == -1) {
+					return -1;
+				}
+			}
+			for(int i=0; i<notation.length(); i++) {
+				batch.addThrow(SiteswapNotation.vanillaThrowHeight(notation.charAt(i)));
+			}
+			return batch.endPattern();
+		}
+
 		// show results of computation
-		void displayOutput() throws ImpossibleTransitionException {
+		void displayOutput() throws ImpossibleTransitionException, BatchFileError {
 			for(int i=0; i<numInputs; i++) {
 				this.inputs[i].displayInfo();
 				Util.printf("==========", Util.DebugLevel.INFO);
 			}
 			switch(this.numInputs) {
 				case 0:
+					if(this.enumerate) {
+						Consumer<Siteswap> print = ss -> {
+							String notated = this.notateGenerated(ss);
+							// results come in from several threads at once
+							synchronized(this) {
+								Util.printf(notated, Util.DebugLevel.INFO);
+							}
+						};
+						if(this.primeOnly) {
+							Util.printf("Prime siteswaps (period up to " + this.period + "):", Util.DebugLevel.INFO);
+							this.generator.generatePrime(print);
+						} else {
+							Util.printf("Siteswaps:", Util.DebugLevel.INFO);
+							this.generator.generate(print);
+						}
+					} else if(this.longestPrime) {
+						this.longestPrimeSearch.search();
+						List<Siteswap> patterns = this.longestPrimeSearch.longestPatterns();
+						Util.printf("Longest prime siteswaps (period " + this.longestPrimeSearch.longestPeriod() + ", " + patterns.size() + " of them):", Util.DebugLevel.INFO);
+						for(Siteswap ss : patterns) {
+							Util.printf(this.notateGenerated(ss), Util.DebugLevel.INFO);
+						}
+					} else if(this.validateBatchFile != null) {
+						this.validateBatch();
+					}
+					break;
 				case 1:
 					break;
 				case 2:
@@ -577,8 +913,17 @@ public class Main {
 						Util.printf("General Form of Transition:", Util.DebugLevel.INFO);
 						Util.printf(transitions.printGeneralTransition(), Util.DebugLevel.INFO);
 					}
-					if(this.maxTransitions != 0) {
-						if(this.maxTransitions != -1)
+					if(this.countTransitions) {
+						Util.printf("Number of Transitions: " + this.transitions.numTransitions(), Util.DebugLevel.INFO);
+					} else if(this.randomTransitions > 0) {
+						Util.printf("Transitions (" + this.randomTransitionList.size() + " at random):", Util.DebugLevel.INFO);
+						for(NotatedSiteswap transition : this.randomTransitionList) {
+							Util.printf(transition.print(), Util.DebugLevel.INFO);
+						}
+					} else if(this.maxTransitions != 0) {
+						if(this.bestTransitionsBy != null)
+							Util.printf("Transitions (" + (this.maxTransitions != -1 ? "best " + this.maxTransitions + " " : "") + "by " + this.bestTransitionsBy.description() + "):", Util.DebugLevel.INFO);
+						else if(this.maxTransitions != -1)
 							Util.printf("Transitions (first " + this.maxTransitions + "):", Util.DebugLevel.INFO);
 						else
 							Util.printf("Transitions:", Util.DebugLevel.INFO);
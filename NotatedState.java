@@ -70,30 +70,21 @@ public abstract class NotatedState {
 		}
 		SimpleNotatedState(String s) {
 			this();
-			State.Node curNode = this.state.nowNode;
 			char[] a = s.toCharArray();
 			int i = 0;
+			int b = 0; // index of beat in output state
 			boolean isNegative = false;
-			this.state.repeatedLength = 0;
 			while(i < a.length) {
 				switch(a[i]) {
 					case '-':
 						isNegative = true;
 						break;
 					default:
-						this.state.finiteLength++;
-						State.Node newNode = this.state.new Node();
-						if(this.state.nowNode == null) {
-							this.state.nowNode = newNode;
-							curNode = state.nowNode;
-						} else {
-							curNode.prev = newNode;
-							curNode = newNode;
-						}
 						ExtendedInteger h = SiteswapNotation.throwHeight(a[i]);
 						if(isNegative)
 							h.negate();
-						curNode.setChargeAtHand(0, h.finiteValue()); // h is always finite, given what chars we're giving to throwHeight
+						this.state.setChargeAtBeatAtHand(b, 0, h.finiteValue()); // h is always finite, given what chars we're giving to throwHeight
+						b++;
 						isNegative = false;
 						break;
 				}
@@ -118,23 +109,15 @@ public abstract class NotatedState {
 		ComplexNotatedState(String s) {
 			this();
 			boolean isNegative = false;
-			State.Node curNode = this.state.nowNode;
 			char[] a = s.toCharArray();
 			int i = 0;
+			int b = -1; // index of beat in output state
 			boolean seenComma = false;
-			this.state.repeatedLength = 0;
 			while(i < a.length) {
 				switch(a[i]) {
 					case '(':
-						this.state.finiteLength++;
-						State.Node newNode = this.state.new Node();
-						if(this.state.nowNode == null) {
-							this.state.nowNode = newNode;
-							curNode = this.state.nowNode;
-						} else {
-							curNode.prev = newNode;
-							curNode = newNode;
-						}
+						b++;
+						this.state.ensureFiniteLength(b + 1);
 						seenComma = false;
 						break;
 					case ',':
@@ -150,9 +133,9 @@ public abstract class NotatedState {
 						if(isNegative)
 							h.negate();
 						if(!seenComma)
-							curNode.setChargeAtHand(0,h.finiteValue());
+							this.state.setChargeAtBeatAtHand(b, 0, h.finiteValue());
 						else
-							curNode.setChargeAtHand(1,h.finiteValue());
+							this.state.setChargeAtBeatAtHand(b, 1, h.finiteValue());
 						isNegative = false;
 				}
 				i++;
@@ -0,0 +1,310 @@
+package siteswapsuite;
+
+// A Siteswap stored as a handful of flat primitive arrays instead of
+// nested lists of Site and Toss objects. Tosses are kept site by site
+// (beat-major, then hand), and the tosses of site s live at indices
+// siteStart[s] .. siteStart[s+1]-1 of the height/destHand/charge arrays.
+public class PackedSiteswap {
+
+	// sentinel heights for infinite tosses
+	static final int POSITIVE_INFINITY = Integer.MAX_VALUE;
+	static final int NEGATIVE_INFINITY = Integer.MIN_VALUE;
+	// destination hand of an infinite toss
+	static final int NO_HAND = -1;
+
+	int numHands;
+	int period;
+	int numTosses;
+	int[] siteStart;
+	int[] heights;
+	int[] destHands;
+	byte[] charges;
+
+	// initialize a completely empty pattern with the given number of hands
+	public PackedSiteswap(int numHands) {
+		this.numHands = numHands;
+		this.period = 0;
+		this.numTosses = 0;
+		this.siteStart = new int[1];
+		this.heights = new int[4];
+		this.destHands = new int[4];
+		this.charges = new byte[4];
+	}
+
+	// pack an existing siteswap
+	public PackedSiteswap(Siteswap ss) {
+		this.numHands = ss.numHands();
+		this.period = ss.period();
+		int numSites = this.period * this.numHands;
+		this.siteStart = new int[numSites + 1];
+		int count = 0;
+		for(int b=0; b<this.period; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				count += ss.numTossesAtSite(b, h);
+			}
+		}
+		this.heights = new int[count];
+		this.destHands = new int[count];
+		this.charges = new byte[count];
+		int s = 0;
+		for(int b=0; b<this.period; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				this.siteStart[s] = this.numTosses;
+				for(int t=0; t<ss.numTossesAtSite(b, h); t++) {
+					this.store(this.numTosses, ss.getToss(b, h, t));
+					this.numTosses++;
+				}
+				s++;
+			}
+		}
+		this.siteStart[numSites] = this.numTosses;
+	}
+
+	// querying basic info
+	public int numHands() {
+		return this.numHands;
+	}
+
+	public int period() {
+		return this.period;
+	}
+
+	public int numTosses() {
+		return this.numTosses;
+	}
+
+	// index of a site in siteStart, wrapping beat indices around the period like Siteswap.getSite()
+	int siteIndex(int beatIndex, int handIndex) {
+		beatIndex = beatIndex % this.period;
+		if(beatIndex < 0) {
+			beatIndex += this.period;
+		}
+		return beatIndex * this.numHands + handIndex;
+	}
+
+	// querying tosses
+
+	// a pattern with no beats has nothing at any site, like in Siteswap
+	public int numTossesAtSite(int atBeat, int fromHand) {
+		if(this.period == 0) {
+			return 0;
+		}
+		int s = this.siteIndex(atBeat, fromHand);
+		return this.siteStart[s+1] - this.siteStart[s];
+	}
+
+	public int outDegreeAtSite(int atBeat, int fromHand) {
+		if(this.period == 0) {
+			return 0;
+		}
+		int s = this.siteIndex(atBeat, fromHand);
+		int outDegree = 0;
+		for(int i=this.siteStart[s]; i<this.siteStart[s+1]; i++) {
+			outDegree += this.charges[i];
+		}
+		return outDegree;
+	}
+
+	public boolean siteIsEmpty(int atBeat, int fromHand) {
+		return this.numTossesAtSite(atBeat, fromHand) == 0;
+	}
+
+	// the returned Toss is a fresh object; changing it does not change the pattern
+	public Toss getToss(int atBeat, int fromHand, int tossIndex) {
+		if(this.period == 0) {
+			return null;
+		}
+		int s = this.siteIndex(atBeat, fromHand);
+		if(tossIndex >= this.siteStart[s+1] - this.siteStart[s]) {
+			return null;
+		}
+		return this.unpackToss(this.siteStart[s] + tossIndex);
+	}
+
+	// raw access to the flat arrays, by index into the whole pattern
+	int tossHeight(int i) {
+		return this.heights[i];
+	}
+
+	int tossDestHand(int i) {
+		return this.destHands[i];
+	}
+
+	int tossCharge(int i) {
+		return this.charges[i];
+	}
+
+	static boolean isInfiniteHeight(int height) {
+		return height == POSITIVE_INFINITY || height == NEGATIVE_INFINITY;
+	}
+
+	// Siteswap.degreesMatch(), read straight off the arrays
+	Boolean degreesMatch(boolean unpaired) {
+		int numSites = this.period * this.numHands;
+		int[] inDegrees = new int[numSites];
+		int[] outDegrees = new int[numSites];
+		boolean throwsToInfinity = false;
+		boolean catchesFromInfinity = false;
+		for(int s=0; s<numSites; s++) {
+			int b = s / this.numHands;
+			for(int i=this.siteStart[s]; i<this.siteStart[s+1]; i++) {
+				outDegrees[s] += this.charges[i];
+				if(this.heights[i] == NEGATIVE_INFINITY) {
+					inDegrees[s] += this.charges[i];
+					catchesFromInfinity = true;
+				} else if(this.heights[i] == POSITIVE_INFINITY) {
+					throwsToInfinity = true;
+				} else {
+					int destBeat = (b + this.heights[i]) % this.period;
+					if(destBeat < 0) {
+						destBeat += this.period;
+					}
+					inDegrees[destBeat * this.numHands + this.destHands[i]] += this.charges[i];
+				}
+			}
+		}
+		if(throwsToInfinity && catchesFromInfinity && !unpaired) {
+			return null;
+		}
+		for(int s=0; s<numSites; s++) {
+			if(inDegrees[s] != outDegrees[s]) {
+				Util.printf("b: " + (s / this.numHands) + ", h: " + (s % this.numHands), Util.DebugLevel.DEBUG);
+				Util.printf("in:  " + inDegrees[s], Util.DebugLevel.DEBUG);
+				Util.printf("out: " + outDegrees[s], Util.DebugLevel.DEBUG);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// adding tosses
+
+	public void addToss(int atBeat, int fromHand, Toss toss) {
+		int s = this.siteIndex(atBeat, fromHand);
+		int i = this.siteStart[s+1];
+		this.ensureCapacity(this.numTosses + 1);
+		// make room at the end of the site, shifting the tosses of all later sites
+		System.arraycopy(this.heights, i, this.heights, i+1, this.numTosses - i);
+		System.arraycopy(this.destHands, i, this.destHands, i+1, this.numTosses - i);
+		System.arraycopy(this.charges, i, this.charges, i+1, this.numTosses - i);
+		this.store(i, toss);
+		this.numTosses++;
+		for(int s2=s+1; s2<this.siteStart.length; s2++) {
+			this.siteStart[s2]++;
+		}
+	}
+
+	public void addFiniteToss(int atBeat, int fromHand, int height, int toHand) {
+		this.addToss(atBeat, fromHand, new Toss(height, toHand, false));
+	}
+
+	public void addFiniteAntitoss(int atBeat, int fromHand, int height, int toHand) {
+		this.addToss(atBeat, fromHand, new Toss(height, toHand, true));
+	}
+
+	public void addInfiniteToss(int atBeat, int fromHand, InfinityType height) {
+		this.addToss(atBeat, fromHand, new Toss(height, false));
+	}
+
+	public void addInfiniteAntitoss(int atBeat, int fromHand, InfinityType height) {
+		this.addToss(atBeat, fromHand, new Toss(height, true));
+	}
+
+	// extending pattern
+	public void appendEmptyBeat() {
+		int[] newSiteStart = new int[this.siteStart.length + this.numHands];
+		System.arraycopy(this.siteStart, 0, newSiteStart, 0, this.siteStart.length);
+		for(int s=this.siteStart.length; s<newSiteStart.length; s++) {
+			newSiteStart[s] = this.numTosses;
+		}
+		this.siteStart = newSiteStart;
+		this.period++;
+	}
+
+	// convert back to the list-of-lists representation
+	public Siteswap unpack() {
+		Siteswap ss = new Siteswap(this.numHands);
+		for(int b=0; b<this.period; b++) {
+			ss.appendEmptyBeat();
+			for(int h=0; h<this.numHands; h++) {
+				int s = b * this.numHands + h;
+				for(int i=this.siteStart[s]; i<this.siteStart[s+1]; i++) {
+					ss.addToss(b, h, this.unpackToss(i));
+				}
+			}
+		}
+		return ss;
+	}
+
+	private void store(int i, Toss toss) {
+		ExtendedInteger height = toss.height();
+		if(height.isInfinite()) {
+			if(height.infiniteValue() == InfinityType.POSITIVE_INFINITY) {
+				this.heights[i] = POSITIVE_INFINITY;
+			} else {
+				this.heights[i] = NEGATIVE_INFINITY;
+			}
+			this.destHands[i] = NO_HAND;
+		} else {
+			this.heights[i] = height.finiteValue();
+			this.destHands[i] = toss.destHand();
+		}
+		this.charges[i] = (byte)toss.charge();
+	}
+
+	private Toss unpackToss(int i) {
+		boolean isAntitoss = this.charges[i] < 0;
+		switch(this.heights[i]) {
+			case POSITIVE_INFINITY:
+				return new Toss(InfinityType.POSITIVE_INFINITY, isAntitoss);
+			case NEGATIVE_INFINITY:
+				return new Toss(InfinityType.NEGATIVE_INFINITY, isAntitoss);
+			default:
+				return new Toss(this.heights[i], this.destHands[i], isAntitoss);
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(capacity > this.heights.length) {
+			int newLength = Math.max(capacity, 2 * this.heights.length);
+			int[] newHeights = new int[newLength];
+			int[] newDestHands = new int[newLength];
+			byte[] newCharges = new byte[newLength];
+			System.arraycopy(this.heights, 0, newHeights, 0, this.numTosses);
+			System.arraycopy(this.destHands, 0, newDestHands, 0, this.numTosses);
+			System.arraycopy(this.charges, 0, newCharges, 0, this.numTosses);
+			this.heights = newHeights;
+			this.destHands = newDestHands;
+			this.charges = newCharges;
+		}
+	}
+
+	// same format as Siteswap.toString()
+	public String toString() {
+		String out = "[";
+		for(int b=0; b<this.period; b++) {
+			if(b > 0) {
+				out += ", ";
+			}
+			out += "[";
+			for(int h=0; h<this.numHands; h++) {
+				if(h > 0) {
+					out += ", ";
+				}
+				out += "[";
+				int s = b * this.numHands + h;
+				for(int i=this.siteStart[s]; i<this.siteStart[s+1]; i++) {
+					if(i > this.siteStart[s]) {
+						out += ", ";
+					}
+					out += this.unpackToss(i).toString();
+				}
+				out += "]";
+			}
+			out += "]";
+		}
+		out += "]";
+		return out;
+	}
+
+}
@@ -2,11 +2,26 @@ package siteswapsuite;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Siteswap {
 
 	int numHands;
-	List<List<Site>> sites;
+	List<List<Site>> sites; // null while the pattern is packed
+	private PackedSiteswap packed; // the tosses, while the pattern is packed (see pack())
+
+	// for hashing states in firstRepeatedStates(): any odd number, and its inverse in 64-bit arithmetic
+	static final long HASH_BASE = 0x9E3779B97F4A7C15L;
+	static final long HASH_INVERSE = inverse(HASH_BASE);
+
+	// by Newton's method, each step doubling the number of correct bits
+	private static long inverse(long a) {
+		long x = a;
+		for(int i=0; i<5; i++) {
+			x *= 2 - a * x;
+		}
+		return x;
+	}
 
 	// main constructor - initialize a completely empty siteswap with the given number of hands
 	public Siteswap(int numHands) {
@@ -26,40 +41,78 @@ public class Siteswap {
 	}
 
 	public int period() {
+		if(this.packed != null) {
+			return this.packed.period();
+		}
 		return this.sites.size();
 	}
 
+	// keep the tosses in a PackedSiteswap instead of lists of Sites and Tosses, which takes a fraction of
+	// the memory, for patterns that are kept around rather than changed. numHands(), period(), toString()
+	// and the per-site queries (numTossesAtSite(), outDegreeAtSite(), siteIsEmpty(), getToss()) read the
+	// packed arrays directly; getToss() gives a fresh Toss then, so changing it doesn't change the pattern.
+	// anything else unpacks the pattern again first. don't share a packed pattern between threads unless
+	// they only use those queries.
+	public void pack() {
+		if(this.packed == null) {
+			this.packed = new PackedSiteswap(this);
+			this.sites = null;
+		}
+	}
+
+	public boolean isPacked() {
+		return this.packed != null;
+	}
+
+	// the sites, unpacking the pattern first if it's packed
+	private List<List<Site>> sites() {
+		if(this.packed != null) {
+			this.sites = this.packed.unpack().sites;
+			this.packed = null;
+		}
+		return this.sites;
+	}
+
 	// computing more complicated info
 
 	public ExtendedFraction numBalls() {
 		Siteswap toRunOn = this.deepCopy();
 		toRunOn.unAntitossify(); // needs to be implemented
+		int[] allSites = new int[toRunOn.period() * toRunOn.numHands];
+		for(int i=0; i<allSites.length; i++) {
+			allSites[i] = i;
+		}
+		return toRunOn.numBallsAtSites(allSites);
+	}
+
+	// number of balls thrown from the given sites (beat * numHands + hand) per beat
+	private ExtendedFraction numBallsAtSites(int[] siteIndices) {
 		int finiteValue = 0;
 		int numInfinities = 0;
 		Toss curToss;
 		ExtendedInteger curTossHeight;
-		for(int b=0; b<toRunOn.sites.size(); b++) {
-			for(int h=0; h<toRunOn.numHands; h++) {
-				for(int t=0; t<toRunOn.numTossesAtSite(b, h); t++) {
-					curToss = toRunOn.getToss(b, h, t);
-					curTossHeight = curToss.height();
-					if(curTossHeight.isInfinite()) {
-						if(curTossHeight.infiniteValue() == InfinityType.POSITIVE_INFINITY) {
-							if(!curToss.isAntitoss()) {
-								numInfinities++;
-							} else {
-								numInfinities--;
-							}
+		for(int site : siteIndices) {
+			int b = site / this.numHands;
+			int h = site % this.numHands;
+			for(int t=0; t<this.numTossesAtSite(b, h); t++) {
+				curToss = this.getToss(b, h, t);
+				curTossHeight = curToss.height();
+				if(curTossHeight.isInfinite()) {
+					if(curTossHeight.infiniteValue() == InfinityType.POSITIVE_INFINITY) {
+						if(!curToss.isAntitoss()) {
+							numInfinities++;
 						} else {
-							if(!curToss.isAntitoss()) {
-								numInfinities--;
-							} else {
-								numInfinities++;
-							}
+							numInfinities--;
 						}
 					} else {
-						finiteValue += curToss.charge() * curTossHeight.finiteValue();
+						if(!curToss.isAntitoss()) {
+							numInfinities--;
+						} else {
+							numInfinities++;
+						}
 					}
+				} else {
+					finiteValue += curToss.charge() * curTossHeight.finiteValue();
 				}
 			}
 		}
@@ -73,51 +126,71 @@ public class Siteswap {
 				top = new ExtendedInteger(InfinityType.NEGATIVE_INFINITY);
 			}
 		}
-		return new ExtendedFraction(top, this.sites.size());
+		return new ExtendedFraction(top, this.period());
 	}
 
 	public boolean isValid() {
-		Siteswap toRunOn = this.deepCopy();
-		// turn any `-&`s into catches by pairing them up with `&`s
-		toRunOn.unInfinitize();
-		// reset inDegree of each site
-		for(int b=0; b<toRunOn.sites.size(); b++) {
-			for(int h=0; h<toRunOn.numHands; h++) {
-				toRunOn.getSite(b, h).inDegree = 0;
-			}
+		Boolean valid = this.degreesMatch();
+		if(valid == null) {
+			// turn any `-&`s into catches by pairing them up with `&`s, on a copy
+			Siteswap toRunOn = this.deepCopy();
+			toRunOn.unInfinitize();
+			valid = toRunOn.degreesMatch(true);
 		}
-		// calculate inDegree of each site
-		Toss curToss;
-		int destBeat;
-		int destHand;
-		for(int b=0; b<toRunOn.period(); b++) {
-			for(int h=0; h<toRunOn.numHands; h++) {
-				for(int t=0; t<toRunOn.numTossesAtSite(b, h); t++) {
-					curToss = toRunOn.getToss(b, h, t);
-					if(curToss.height().isInfinite()) {
-						if(curToss.height().infiniteValue() == InfinityType.NEGATIVE_INFINITY) {
-							destBeat = b;
-							destHand = h;
-							toRunOn.getSite(destBeat, destHand).inDegree += curToss.charge();
+		return valid;
+	}
+
+	// whether the charge landing in each site matches its out-degree, in one pass over the tosses,
+	// with any `-&`s landing in their own site. if there are both `&`s and `-&`s, they have to be
+	// paired up first, so this gives null unless told to check them as they are.
+	private Boolean degreesMatch() {
+		return this.degreesMatch(false);
+	}
+
+	private Boolean degreesMatch(boolean unpaired) {
+		// a packed pattern is checked as it is, without unpacking it
+		if(this.packed != null) {
+			return this.packed.degreesMatch(unpaired);
+		}
+		int period = this.sites.size();
+		int[] inDegrees = new int[period * this.numHands];
+		boolean throwsToInfinity = false;
+		boolean catchesFromInfinity = false;
+		for(int b=0; b<period; b++) {
+			List<Site> beat = this.sites.get(b);
+			for(int h=0; h<this.numHands; h++) {
+				List<Toss> tosses = beat.get(h).tosses;
+				for(int t=0; t<tosses.size(); t++) {
+					Toss toss = tosses.get(t);
+					ExtendedInteger height = toss.height();
+					if(height.isInfinite()) {
+						if(height.infiniteValue() == InfinityType.NEGATIVE_INFINITY) {
+							inDegrees[b * this.numHands + h] += toss.charge();
+							catchesFromInfinity = true;
+						} else {
+							throwsToInfinity = true;
 						}
 					} else {
-						destBeat = (b + curToss.height().finiteValue()) % toRunOn.period();
+						int destBeat = (b + height.finiteValue()) % period;
 						if(destBeat < 0) {
-							destBeat += toRunOn.period();
+							destBeat += period;
 						}
-						destHand = curToss.destHand();
-						toRunOn.getSite(destBeat, destHand).inDegree += curToss.charge();
+						inDegrees[destBeat * this.numHands + toss.destHand()] += toss.charge();
 					}
 				}
 			}
 		}
+		if(throwsToInfinity && catchesFromInfinity && !unpaired) {
+			return null;
+		}
 		// check if each site's inDegree matches its outDegree
-		for(int b=0; b<toRunOn.sites.size(); b++) {
-			for(int h=0; h<toRunOn.numHands; h++) {
-				if(toRunOn.getSite(b, h).inDegree != toRunOn.getSite(b, h).outDegree) {
+		for(int b=0; b<period; b++) {
+			List<Site> beat = this.sites.get(b);
+			for(int h=0; h<this.numHands; h++) {
+				if(inDegrees[b * this.numHands + h] != beat.get(h).outDegree) {
 					Util.printf("b: " + b + ", h: " + h, Util.DebugLevel.DEBUG);
-					Util.printf("in:  " + toRunOn.getSite(b, h).inDegree, Util.DebugLevel.DEBUG);
-					Util.printf("out: " + toRunOn.getSite(b, h).outDegree, Util.DebugLevel.DEBUG);
+					Util.printf("in:  " + inDegrees[b * this.numHands + h], Util.DebugLevel.DEBUG);
+					Util.printf("out: " + beat.get(h).outDegree, Util.DebugLevel.DEBUG);
 					return false;
 				}
 			}
@@ -125,114 +198,268 @@ public class Siteswap {
 		return true;
 	}
 
+	// a pattern is prime if it doesn't go through any state twice in one period
 	public boolean isPrime() {
-		State curState = new State(this);
-		State[] prevStates = new State[this.period()];
-		prevStates[0] = curState.deepCopy();
-		for(int b=0; b<this.period()-1; b++) {
-			for(int h=0; h<this.numHands(); h++) {
+		return this.firstRepeatedStates() == null;
+	}
+
+	// the first two beats i < j (of 0 .. period-1) that the pattern is in the same state at, just before
+	// their throws, or null if there aren't any (i.e. the pattern is prime). i is the same as the first
+	// state seen again, and j is as small as it can be.
+	//
+	// Each state is hashed as a polynomial in its charges, slot s = beat * numHands + hand having weight
+	// HASH_BASE^s (in 64-bit arithmetic, where an odd base can be divided out again). A throw changes two
+	// terms, and moving on a beat drops the terms of the beat just thrown, divides out HASH_BASE^numHands
+	// and adds the beat coming into view, so each state's hash costs as much as its throws. The hashes
+	// are kept (in a table of about twice as many entries as the period), but the states aren't: when a
+	// hash comes up again, the earlier state is juggled again from the start to check they really are
+	// the same.
+	public int[] firstRepeatedStates() {
+		int period = this.period();
+		if(period < 2) {
+			return null;
+		}
+		int maxHeight = this.maxFiniteHeight();
+		Siteswap ss = this;
+		if(this.minFiniteHeight() < 0) {
+			// the simulation only moves balls forward in time, so make negative throws into antitosses
+			ss = this.deepCopy();
+			ss.antitossify();
+			maxHeight = ss.maxFiniteHeight();
+		}
+		State curState = new State(ss);
+		// the charges of this many beats decide a state: the finite portion as long as it gets, and one
+		// period of the repeated portion after that
+		int window = Math.max(curState.finiteLength, maxHeight + 1) + curState.repeatedLength;
+		long[] powers = new long[window * ss.numHands];
+		powers[0] = 1;
+		for(int s=1; s<powers.length; s++) {
+			powers[s] = powers[s-1] * HASH_BASE;
+		}
+		long shiftBack = 1;
+		for(int h=0; h<ss.numHands; h++) {
+			shiftBack *= HASH_INVERSE;
+		}
+		long hash = 0;
+		for(int s=0; s<powers.length; s++) {
+			hash += curState.getChargeAtBeatAtHand(s / ss.numHands, s % ss.numHands) * powers[s];
+		}
+		// the hash of each beat's state, in an open addressing table (beat + 1, 0 for an empty entry)
+		int tableBits = 32 - Integer.numberOfLeadingZeros(2 * period - 1);
+		long[] tableHashes = new long[1 << tableBits];
+		int[] tableBeats = new int[1 << tableBits];
+		tableHashes[hashIndex(hash, tableBits)] = hash;
+		tableBeats[hashIndex(hash, tableBits)] = 1;
+		for(int b=0; b<period-1; b++) {
+			hash += ss.throwBeat(curState, b, powers);
+			for(int h=0; h<ss.numHands; h++) {
+				hash -= curState.getChargeAtBeatAtHand(0, h) * powers[h];
+			}
+			curState.advanceTime();
+			hash *= shiftBack;
+			for(int h=0; h<ss.numHands; h++) {
+				hash += curState.getChargeAtBeatAtHand(window - 1, h) * powers[(window - 1) * ss.numHands + h];
+			}
+			// different states can have the same hash, so a matching hash is only confirmed by comparing the
+			// states in full; if they differ, the probe goes on past it
+			int index = hashIndex(hash, tableBits);
+			while(tableBeats[index] != 0) {
+				if(tableHashes[index] == hash && ss.stateAtBeat(tableBeats[index] - 1).equals(curState)) {
+					return new int[] { tableBeats[index] - 1, b + 1 };
+				}
+				index = (index + 1) & ((1 << tableBits) - 1);
+			}
+			tableHashes[index] = hash;
+			tableBeats[index] = b + 2;
+		}
+		return null;
+	}
+
+	private static int hashIndex(long hash, int tableBits) {
+		return (int)((hash * HASH_BASE) >>> (64 - tableBits));
+	}
+
+	private int maxFiniteHeight() {
+		int max = 0;
+		for(int b=0; b<this.period(); b++) {
+			for(int h=0; h<this.numHands; h++) {
+				for(int t=0; t<this.numTossesAtSite(b, h); t++) {
+					ExtendedInteger height = this.getToss(b, h, t).height();
+					if(!height.isInfinite()) {
+						max = Math.max(max, height.finiteValue());
+					}
+				}
+			}
+		}
+		return max;
+	}
+
+	private int minFiniteHeight() {
+		int min = 0;
+		for(int b=0; b<this.period(); b++) {
+			for(int h=0; h<this.numHands; h++) {
+				for(int t=0; t<this.numTossesAtSite(b, h); t++) {
+					ExtendedInteger height = this.getToss(b, h, t).height();
+					if(!height.isInfinite()) {
+						min = Math.min(min, height.finiteValue());
+					}
+				}
+			}
+		}
+		return min;
+	}
+
+	// the state just before the throws of the given beat
+	private State stateAtBeat(int beat) {
+		State state = new State(this);
+		for(int b=0; b<beat; b++) {
+			this.throwBeat(state, b, null);
+			state.advanceTime();
+		}
+		return state;
+	}
+
+	// make the throws of the given beat in the given state (without moving on a beat). returns how much
+	// that changes the hash with the given powers of HASH_BASE, if any.
+	private long throwBeat(State state, int b, long[] powers) {
+		long change = 0;
+		for(int h=0; h<this.numHands; h++) {
+			for(int t=0; t<this.numTossesAtSite(b, h); t++) {
+				Toss toss = this.getToss(b, h, t);
+				if(toss.charge() == 0) {
+					continue;
+				}
+				// the change in charge of the hand throwing now
+				int nowChange;
+				if(toss.height().isInfinite()) {
+					if(toss.height().infiniteValue() == InfinityType.POSITIVE_INFINITY) {
+						nowChange = -toss.charge();
+					} else {
+						nowChange = toss.charge();
+					}
+				} else {
+					nowChange = -toss.charge();
+					int slot = toss.height().finiteValue() * this.numHands + toss.destHand();
+					if(toss.charge() == 1) {
+						state.incChargeOfNodeAtHand(toss.height().finiteValue(), toss.destHand());
+					} else {
+						state.decChargeOfNodeAtHand(toss.height().finiteValue(), toss.destHand());
+					}
+					if(powers != null) {
+						change += toss.charge() * powers[slot];
+					}
+				}
+				if(nowChange == 1) {
+					state.incChargeOfNowNodeAtHand(h);
+				} else {
+					state.decChargeOfNowNodeAtHand(h);
+				}
+				if(powers != null) {
+					change += nowChange * powers[h];
+				}
+			}
+		}
+		return change;
+	}
+
+	// orbits: the sites whose tosses are joined up by where they land, found with union-find in one
+	// pass over the tosses. each orbit is a list of site indices (beat * numHands + hand) in increasing
+	// order, and orbits come in order of their first site. sites with only empty hands (zero tosses to
+	// the same hand) aren't in any orbit, and infinite tosses don't join their site to any other.
+	public int[][] orbits() {
+		int numSites = this.period() * this.numHands;
+		int[] parents = new int[numSites];
+		boolean[] inOrbit = new boolean[numSites];
+		for(int i=0; i<numSites; i++) {
+			parents[i] = i;
+		}
+		for(int b=0; b<this.period(); b++) {
+			for(int h=0; h<this.numHands; h++) {
 				for(int t=0; t<this.numTossesAtSite(b, h); t++) {
 					Toss toss = this.getToss(b, h, t);
-					if(toss.charge() == 0) {
+					if(toss.isZero(h)) {
 						continue;
 					}
-					if(toss.height().isInfinite()) {
-						if(toss.height().infiniteValue() == InfinityType.POSITIVE_INFINITY) {
-							if(toss.charge() == 1) {
-								curState.decChargeOfNowNodeAtHand(h);
-							} else {
-								curState.incChargeOfNowNodeAtHand(h);
-							}
-						} else {
-							if(toss.charge() == 1) {
-								curState.incChargeOfNowNodeAtHand(h);
-							} else {
-								curState.decChargeOfNowNodeAtHand(h);
-							}
-						}
-					} else {
-						if(toss.charge() == 1) {
-							curState.decChargeOfNowNodeAtHand(h);
-							curState.incChargeOfNodeAtHand(toss.height().finiteValue(), toss.destHand());
-						} else {
-							curState.incChargeOfNowNodeAtHand(h);
-							curState.decChargeOfNodeAtHand(toss.height().finiteValue(), toss.destHand());
-						}
+					int site = b * this.numHands + h;
+					inOrbit[site] = true;
+					if(!toss.height().isInfinite()) {
+						int landing = Math.floorMod(b + toss.height().finiteValue(), this.period()) * this.numHands + toss.destHand();
+						int root1 = findRoot(parents, site);
+						int root2 = findRoot(parents, landing);
+						// keep the lower site as the root, so it's the first site of its orbit
+						parents[Math.max(root1, root2)] = Math.min(root1, root2);
 					}
 				}
 			}
-			curState.advanceTime();
-			// check if the new state is the same as any of the previous ones
-			for(int i=0; i<=b; i++) {
-				if(curState.equals(prevStates[i])) {
-					return false;
+		}
+		// count up the sites in each orbit, then fill them in. (the root can be a site balls land in
+		// that has nothing thrown from it, if the pattern isn't valid)
+		int[] orbitIndices = new int[numSites];
+		Arrays.fill(orbitIndices, -1);
+		int[] sizes = new int[numSites];
+		int numOrbits = 0;
+		for(int i=0; i<numSites; i++) {
+			if(inOrbit[i]) {
+				int root = findRoot(parents, i);
+				if(orbitIndices[root] == -1) {
+					orbitIndices[root] = numOrbits++;
 				}
+				sizes[orbitIndices[root]]++;
 			}
-			prevStates[b+1] = curState.deepCopy();
 		}
-		return true;
+		int[][] orbits = new int[numOrbits][];
+		for(int o=0; o<numOrbits; o++) {
+			orbits[o] = new int[sizes[o]];
+			sizes[o] = 0;
+		}
+		for(int i=0; i<numSites; i++) {
+			if(inOrbit[i]) {
+				int o = orbitIndices[findRoot(parents, i)];
+				orbits[o][sizes[o]++] = i;
+			}
+		}
+		return orbits;
+	}
+
+	private static int findRoot(int[] parents, int i) {
+		while(parents[i] != i) {
+			// path halving
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	// number of balls in an orbit, as given by orbits()
+	public ExtendedFraction orbitNumBalls(int[] orbit) {
+		return this.numBallsAtSites(orbit);
 	}
 
+	// each orbit as a pattern of the same period with only that orbit's tosses
 	public List<Siteswap> getOrbits() {
-		if(this.numBalls().numerator().isInfinite()) {
-			return null;
+		List<Siteswap> out = new ArrayList<Siteswap>();
+		for(int[] orbit : this.orbits()) {
+			out.add(this.orbitPattern(orbit));
 		}
-		List<Siteswap> orbits = new ArrayList<Siteswap>();
-		Siteswap copy = this.deepCopy();
-		boolean allZero;
-		Toss toss;
-		while(true) {
-			allZero = true;
-			// find next orbit
-			for(int b=0; b<copy.period(); b++) {
-				for(int h=0; h<copy.numHands(); h++) {
-					for(int t=0; t<copy.numTossesAtSite(b,h); t++) {
-						Util.printf("b: " + b + ", h: " + h + ", t: " + t, Util.DebugLevel.DEBUG);
-						toss = copy.getToss(b,h,t);
-						if(toss.charge() != 0) {
-							allZero = false;
-						} else {
-							continue;
-						}
-						// create new orbit
-						Siteswap curOrbit = new Siteswap(this.numHands());
-						for(int i=0; i<this.period(); i++) {
-							curOrbit.appendEmptyBeat();
-						}
-						// set up adding of first toss
-						Toss curToss = toss;
-						int b2 = 0, h2 = 0, t2 = 0;
-						do {
-							// TODO: fix this algorithm
-							Util.printf("b2: " + b2 + ", h2: " + h2 + ", t2: " + t2, Util.DebugLevel.DEBUG);
-							Util.printf(copy, Util.DebugLevel.DEBUG);
-							Util.printf(curOrbit, Util.DebugLevel.DEBUG);
-							Util.printf("", Util.DebugLevel.DEBUG);
-							// add next toss to orbit
-							curToss = copy.getToss(b2, h2, t2);
-							curOrbit.addToss(b, h, curToss);
-							if(curToss.height().isInfinite()) {
-								Util.printf("DON'T KNOW WHAT TO DO WITH INFINITE TOSS WHEN FINDING ORBITS", Util.DebugLevel.DEBUG);
-								continue;
-							}
-							// remove toss from copy
-							copy.removeToss(b2,h2,t2);
-							// advance through siteswap
-							b2 = (b2 + toss.height().finiteValue()) % this.period();
-							if(b2 < 0) b2 += this.period();
-							h2 = curToss.destHand();
-							if(b2 == b && h2 == h) t2 = t; else t2 = 0;
-						} while(b2 != b || h2 != h || t2 != t);
-						// add orbit to list
-						orbits.add(curOrbit);
-					}
+		return out;
+	}
+
+	// an orbit, as given by orbits(), as a pattern of the same period with only its tosses
+	public Siteswap orbitPattern(int[] orbit) {
+		Siteswap ss = new Siteswap(this.numHands);
+		for(int b=0; b<this.period(); b++) {
+			ss.appendEmptyBeat();
+		}
+		for(int site : orbit) {
+			int b = site / this.numHands;
+			int h = site % this.numHands;
+			for(int t=0; t<this.numTossesAtSite(b, h); t++) {
+				if(!this.getToss(b, h, t).isZero(h)) {
+					ss.addToss(b, h, this.getToss(b, h, t).deepCopy());
 				}
 			}
-			if(allZero) {
-				break;
-			}
 		}
-		return orbits;
+		return ss;
 	}
 
 	public ExtendedFraction difficulty() {
@@ -250,26 +477,52 @@ public class Siteswap {
 	// querying tosses
 
 	Site getSite(int beatIndex, int handIndex) {
-		beatIndex = beatIndex % this.sites.size();
+		List<List<Site>> sites = this.sites();
+		beatIndex = beatIndex % sites.size();
 		if(beatIndex < 0) {
-			beatIndex += this.sites.size();
+			beatIndex += sites.size();
 		}
-		return this.sites.get(beatIndex).get(handIndex);
+		return sites.get(beatIndex).get(handIndex);
 	}
 
+	// a pattern with no beats has nothing at any site
 	public int numTossesAtSite(int atBeat, int fromHand) {
+		if(this.period() == 0) {
+			return 0;
+		}
+		if(this.packed != null) {
+			return this.packed.numTossesAtSite(atBeat, fromHand);
+		}
 		return this.getSite(atBeat, fromHand).numTosses();
 	}
 
 	public int outDegreeAtSite(int atBeat, int fromHand) {
+		if(this.period() == 0) {
+			return 0;
+		}
+		if(this.packed != null) {
+			return this.packed.outDegreeAtSite(atBeat, fromHand);
+		}
 		return this.getSite(atBeat, fromHand).outDegree();
 	}
 
 	public boolean siteIsEmpty(int beatIndex, int handIndex) {
+		if(this.period() == 0) {
+			return true;
+		}
+		if(this.packed != null) {
+			return this.packed.siteIsEmpty(beatIndex, handIndex);
+		}
 		return this.getSite(beatIndex, handIndex).isEmpty();
 	}
 
 	public Toss getToss(int atBeat, int fromHand, int tossIndex) {
+		if(this.period() == 0) {
+			return null;
+		}
+		if(this.packed != null) {
+			return this.packed.getToss(atBeat, fromHand, tossIndex);
+		}
 		return this.getSite(atBeat, fromHand).getToss(tossIndex);
 	}
 
@@ -307,18 +560,18 @@ public class Siteswap {
 	}
 
 	public void removeBeat(int beatIndex) {
-		this.sites.remove(beatIndex);
+		this.sites().remove(beatIndex);
 	}
 
 	public void removeLastBeat() {
-		this.removeBeat(this.sites.size() - 1);
+		this.removeBeat(this.sites().size() - 1);
 	}
 
 	// extending pattern
 	public void appendEmptyBeat() {
-		this.sites.add(new ArrayList<Site>());
+		this.sites().add(new ArrayList<Site>());
 		for(int h=0; h<this.numHands; h++)
-			this.sites.get(period()-1).add(new Site(h));
+			this.sites().get(period()-1).add(new Site(h));
 	}
 
 	public int extendToBeatIndex(int beatIndex) { //returns index of beat that was previously "at" given index (either 0, period(), or beatIndex)
@@ -330,6 +583,7 @@ public class Siteswap {
 			}
 			toAnnex.appendSiteswap(this);
 			this.sites = toAnnex.sites;
+			this.packed = null;
 		}
 		while(beatIndex > this.period()) {
 			this.appendEmptyBeat();
@@ -364,49 +618,110 @@ public class Siteswap {
 	public void infinitize() {
 	}
 
+	// pair up each `&` with a `-&` of the same charge, turning it into a toss that lands there.
+	// the `&`s are gone through in order, and each one takes the first `-&` that's still free,
+	// looking from its own beat onwards and then around from the start of the pattern.
+	// since the `&`s come in order of beat, the free `-&`s at or after the current beat are
+	// always a tail of the list of `-&`s of that charge, and the ones it had to go around the end
+	// for are always taken in order from its start; so a pointer into each list for each of those
+	// does it in one pass. the taken `-&`s are blanked out as they go and cleared out at the end
 	public void unInfinitize() {
-		// look for tosses/antitosses of height &
-		for(int b=0; b<this.period(); b++) {
-			for(int h=0; h<this.numHands(); h++) {
-				for(int t=0; t<this.numTossesAtSite(b, h); t++) {
-					Toss curToss = this.getToss(b, h, t);
-					if(curToss.height().isInfinite() && curToss.height().infiniteValue() == InfinityType.POSITIVE_INFINITY) {
-						search: {
-							// first search this beat to see if we can make zero-tosses
-							for(int h2=0; h2<this.numHands; h2++) {
-								for(int t2=0; t2<this.numTossesAtSite(b, h2); t2++) {
-									Toss curCatch = this.getToss(b, h2, t2);
-									if(curCatch.charge() == curToss.charge() &&
-											curCatch.height().isInfinite() &&
-											curCatch.height().infiniteValue() == InfinityType.NEGATIVE_INFINITY) {
-										this.exchangeToss(b, h, t,  new Toss(0, h2, curToss.isAntitoss()) );
-										this.removeToss(b, h2, t2);
-										break search;
-									}
-								}
-							}
-							// now search for positive tosses
-							for(int b2=b+1; b2<b+1+this.period(); b2++) {
-								for(int h2=0; h2<this.numHands(); h2++) {
-									for(int t2=0; t2<this.numTossesAtSite(b2, h2); t2++) {
-										Toss curCatch = this.getToss(b2, h2, t2);
-										if(curCatch.charge() == curToss.charge() &&
-												curCatch.height().isInfinite() &&
-												curCatch.height().infiniteValue() == InfinityType.NEGATIVE_INFINITY) {
-											this.removeToss(b2, h2, t2);
-											this.exchangeToss(b, h, t, new Toss(b2 - b, h2, curToss.charge() == 1));
-											break search;
-										}
-									}
-								}
-							}
+		int period = this.sites().size();
+		// the `-&`s of each charge (index 0 for balls, 1 for antiballs), in order of beat, then hand, then index in the site
+		int[] numCatches = new int[2];
+		for(int b=0; b<period; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				for(Toss toss : this.sites().get(b).get(h).tosses) {
+					if(isInfiniteCatch(toss)) {
+						numCatches[chargeIndex(toss)]++;
+					}
+				}
+			}
+		}
+		if(numCatches[0] + numCatches[1] == 0) {
+			return;
+		}
+		int[][] catchBeats = { new int[numCatches[0]], new int[numCatches[1]] };
+		int[][] catchHands = { new int[numCatches[0]], new int[numCatches[1]] };
+		int[][] catchIndices = { new int[numCatches[0]], new int[numCatches[1]] };
+		boolean[][] caught = { new boolean[numCatches[0]], new boolean[numCatches[1]] };
+		numCatches = new int[2];
+		for(int b=0; b<period; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				List<Toss> tosses = this.sites().get(b).get(h).tosses;
+				for(int t=0; t<tosses.size(); t++) {
+					if(isInfiniteCatch(tosses.get(t))) {
+						int c = chargeIndex(tosses.get(t));
+						catchBeats[c][numCatches[c]] = b;
+						catchHands[c][numCatches[c]] = h;
+						catchIndices[c][numCatches[c]] = t;
+						numCatches[c]++;
+					}
+				}
+			}
+		}
+		int[] ahead = new int[2]; // first `-&` not before the current beat
+		int[] behind = new int[2]; // first `-&` that might still be free before the current beat
+		boolean[] emptiedSites = new boolean[period * this.numHands];
+		for(int b=0; b<period; b++) {
+			for(int c=0; c<2; c++) {
+				while(ahead[c] < numCatches[c] && catchBeats[c][ahead[c]] < b) {
+					ahead[c]++;
+				}
+			}
+			for(int h=0; h<this.numHands; h++) {
+				Site site = this.sites().get(b).get(h);
+				for(int t=0; t<site.tosses.size(); t++) {
+					Toss curToss = site.tosses.get(t);
+					if(curToss == null || !curToss.height().isInfinite() || curToss.height().infiniteValue() != InfinityType.POSITIVE_INFINITY) {
+						continue;
+					}
+					int c = chargeIndex(curToss);
+					int i;
+					if(ahead[c] < numCatches[c]) {
+						i = ahead[c];
+						ahead[c]++;
+					} else {
+						while(behind[c] < ahead[c] && caught[c][behind[c]]) {
+							behind[c]++;
 						}
+						if(behind[c] == ahead[c]) {
+							continue;
+						}
+						i = behind[c];
+						behind[c]++;
+					}
+					caught[c][i] = true;
+					int b2 = catchBeats[c][i];
+					int h2 = catchHands[c][i];
+					if(b2 < b) {
+						b2 += period;
 					}
+					site.exchangeToss(t, new Toss(b2 - b, h2, curToss.charge() < 0));
+					Site catchSite = this.sites().get(catchBeats[c][i]).get(h2);
+					catchSite.outDegree -= catchSite.tosses.get(catchIndices[c][i]).charge();
+					catchSite.tosses.set(catchIndices[c][i], null);
+					emptiedSites[catchBeats[c][i] * this.numHands + h2] = true;
+				}
+			}
+		}
+		for(int b=0; b<period; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				if(emptiedSites[b * this.numHands + h]) {
+					this.sites().get(b).get(h).tosses.removeIf(toss -> toss == null);
 				}
 			}
 		}
 	}
 
+	private static boolean isInfiniteCatch(Toss toss) {
+		return toss.height().isInfinite() && toss.height().infiniteValue() == InfinityType.NEGATIVE_INFINITY;
+	}
+
+	private static int chargeIndex(Toss toss) {
+		return (toss.charge() > 0 ? 0 : 1);
+	}
+
 	public void antitossify() {
 		Siteswap temp = new Siteswap(this.numHands);
 		for(int i=0; i<this.period(); i++) {
@@ -438,6 +753,7 @@ public class Siteswap {
 			}
 		}
 		this.sites = temp.sites;
+		this.packed = null;
 	}
 
 	public void unAntitossify() {
@@ -450,6 +766,10 @@ public class Siteswap {
 	}
 
 	public Siteswap subPattern(int startBeat, int endBeat) {
+		if(this.packed != null) {
+			// without unpacking this one
+			return this.packed.unpack().subPattern(startBeat, endBeat);
+		}
 		//get deep copy of each beat within specified indices
 		List<List<Site>> newSites = new ArrayList<List<Site>>();
 		for(int b=startBeat; b<endBeat; b++) {
@@ -463,24 +783,29 @@ public class Siteswap {
 	}
 
 	public String toString() {
+		if(this.packed != null) {
+			return this.packed.toString();
+		}
 		return this.sites.toString();
 	}
 
 	public Siteswap deepCopy() {
+		if(this.packed != null) {
+			// without unpacking this one
+			return this.packed.unpack();
+		}
 		return this.subPattern(0, this.period());
 	}
 
 	class Site {
 		private List<Toss> tosses;
 		private int handIndex;
-		private int inDegree;
 		private int outDegree;
 
 		// standard constructor - create an empty site
 		private Site(int handIndex) {
 			this.handIndex = handIndex;
 			this.tosses = new ArrayList<Toss>();
-			this.inDegree = 0;
 			this.outDegree = 0;
 		}
 
@@ -489,7 +814,6 @@ public class Siteswap {
 			this.handIndex = handIndex;
 			this.tosses = newTosses;
 			this.outDegree = newOutDegree;
-			this.inDegree = 0;
 		}
 
 		private int numTosses() {
@@ -0,0 +1,121 @@
+package siteswapsuite;
+
+// Many vanilla siteswaps (one hand, one finite non-negative toss per beat) at
+// once, for checking the validity of long lists of them. Like PackedSiteswap,
+// nothing is kept as Site or Toss objects: the throw heights of every pattern
+// are stored one after another in a single column, and pattern i's throws live
+// at indices patternStart[i] .. patternStart[i+1]-1 of it.
+//
+// A vanilla pattern is valid exactly when the throws land on different beats,
+// i.e. when b -> (b + h_b) mod period is a permutation of the beats, which is
+// all areValid() checks. Anything else goes through Siteswap.isValid().
+public class SiteswapBatch {
+
+	int numPatterns;
+	int numThrows;
+	int[] patternStart;
+	int[] heights;
+
+	// initialize an empty batch
+	public SiteswapBatch() {
+		this.numPatterns = 0;
+		this.numThrows = 0;
+		this.patternStart = new int[16];
+		this.heights = new int[64];
+	}
+
+	public int size() {
+		return this.numPatterns;
+	}
+
+	public int period(int patternIndex) {
+		return this.patternStart[patternIndex + 1] - this.patternStart[patternIndex];
+	}
+
+	public int height(int patternIndex, int beatIndex) {
+		return this.heights[this.patternStart[patternIndex] + beatIndex];
+	}
+
+	// empty the batch, keeping its arrays to be filled again
+	public void clear() {
+		this.numPatterns = 0;
+		this.numThrows = 0;
+	}
+
+	// add a throw (of non-negative height) to the end of the pattern being built
+	// up, which becomes the next pattern of the batch once endPattern() is called
+	public void addThrow(int height) {
+		if(this.numThrows == this.heights.length) {
+			int[] newHeights = new int[2 * this.heights.length];
+			System.arraycopy(this.heights, 0, newHeights, 0, this.numThrows);
+			this.heights = newHeights;
+		}
+		this.heights[this.numThrows] = height;
+		this.numThrows++;
+	}
+
+	// finish off the pattern made of the throws added since the last one,
+	// and give its index in the batch
+	public int endPattern() {
+		if(this.numPatterns + 2 > this.patternStart.length) {
+			int[] newPatternStart = new int[2 * this.patternStart.length];
+			System.arraycopy(this.patternStart, 0, newPatternStart, 0, this.numPatterns + 1);
+			this.patternStart = newPatternStart;
+		}
+		this.numPatterns++;
+		this.patternStart[this.numPatterns] = this.numThrows;
+		return this.numPatterns - 1;
+	}
+
+	// add a pattern, if it's vanilla; gives its index in the batch, or -1 if it isn't
+	public int add(Siteswap ss) {
+		if(ss.numHands() != 1 || ss.period() == 0) {
+			return -1;
+		}
+		for(int b=0; b<ss.period(); b++) {
+			if(ss.numTossesAtSite(b, 0) != 1) {
+				return -1;
+			}
+			Toss toss = ss.getToss(b, 0, 0);
+			if(toss.height().isInfinite() || toss.height().finiteValue() < 0 || toss.charge() != 1) {
+				return -1;
+			}
+		}
+		for(int b=0; b<ss.period(); b++) {
+			this.addThrow(ss.getToss(b, 0, 0).height().finiteValue());
+		}
+		return this.endPattern();
+	}
+
+	// the validity of each pattern in the batch, in order
+	public boolean[] areValid() {
+		boolean[] valid = new boolean[this.numPatterns];
+		int maxPeriod = 0;
+		for(int i=0; i<this.numPatterns; i++) {
+			maxPeriod = Math.max(maxPeriod, this.patternStart[i + 1] - this.patternStart[i]);
+		}
+		// which pattern last had a throw land on each beat, so the table
+		// never needs clearing between patterns
+		int[] landedBy = new int[maxPeriod];
+		for(int i=0; i<this.numPatterns; i++) {
+			int start = this.patternStart[i];
+			int period = this.patternStart[i + 1] - start;
+			int stamp = i + 1;
+			boolean permutation = true;
+			for(int b=0; b<period; b++) {
+				int landing = b + this.heights[start + b];
+				if(landing >= period) {
+					landing %= period;
+				}
+				if(landedBy[landing] == stamp) {
+					permutation = false;
+					break;
+				}
+				landedBy[landing] = stamp;
+			}
+			valid[i] = permutation;
+		}
+		return valid;
+	}
+
+}
@@ -0,0 +1,258 @@
+package siteswapsuite;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Lists every valid (non-multiplex) siteswap with a given number of balls,
+// period and maximum throw height, as closed walks in a StateGraph.
+//
+// Each pattern is found exactly once: only from the lowest-numbered state it
+// passes through, and only from the rotation starting there whose throws come
+// first in (descending) lexicographic order. Walks that are a smaller pattern
+// repeated are skipped, so every result has exactly the requested period.
+// Results are passed on in their lexicographically largest rotation, e.g. 531
+// rather than 315.
+//
+// Prime patterns (ones that don't pass through any state twice) of every period up
+// to the given one can be listed instead. These are the simple cycles in the graph,
+// found with Johnson's algorithm rather than by going through every closed walk.
+//
+// The search is split up by starting state with ForkJoin, and results are handed
+// to the consumer as soon as they're found, from whichever thread found them.
+public class SiteswapGenerator {
+
+	static final int NO_WAY_BACK = Integer.MAX_VALUE / 2;
+
+	StateGraph graph;
+	int period; // in beats, like Siteswap.period()
+	int numSteps; // period in steps of the graph
+
+	public SiteswapGenerator(int numBalls, int period, int maxHeight, int numHands) throws StateGraphException {
+		this.graph = new StateGraph(numBalls, maxHeight, numHands);
+		if(period < 0 || period % this.graph.beatsPerStep() != 0) {
+			throw new StateGraphException("period of a " + numHands + "-handed pattern must be a nonnegative multiple of " + this.graph.beatsPerStep() + "; got " + period);
+		}
+		this.period = period;
+		this.numSteps = period / this.graph.beatsPerStep();
+		Util.printf(this.graph, Util.DebugLevel.DEBUG);
+	}
+
+	public StateGraph graph() {
+		return this.graph;
+	}
+
+	// run the search on the common pool, passing each pattern to out as it's found.
+	// out must be safe to call from several threads at once.
+	public void generate(Consumer<Siteswap> out) {
+		if(this.numSteps == 0 || this.graph.numStates() == 0) {
+			return;
+		}
+		ForkJoinPool.commonPool().invoke(new StartStates(0, this.graph.numStates(), out, false));
+	}
+
+	// the same, but for the prime patterns with any period up to this one
+	public void generatePrime(Consumer<Siteswap> out) {
+		if(this.numSteps == 0 || this.graph.numStates() == 0) {
+			return;
+		}
+		ForkJoinPool.commonPool().invoke(new StartStates(0, this.graph.numStates(), out, true));
+	}
+
+	// the search from every starting state in a range, split in half until there's one each
+	private class StartStates extends RecursiveAction {
+		int from;
+		int to;
+		Consumer<Siteswap> out;
+		boolean prime;
+
+		StartStates(int from, int to, Consumer<Siteswap> out, boolean prime) {
+			this.from = from;
+			this.to = to;
+			this.out = out;
+			this.prime = prime;
+		}
+
+		protected void compute() {
+			if(this.to - this.from == 1) {
+				if(this.prime) {
+					new PrimeSearch(this.from, this.out).run();
+				} else {
+					new Search(this.from, this.out).run();
+				}
+			} else {
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new StartStates(this.from, mid, this.out, this.prime), new StartStates(mid, this.to, this.out, this.prime));
+			}
+		}
+	}
+
+	// depth-first search for closed walks from one starting state
+	private class Search {
+		int start;
+		long startMask;
+		Consumer<Siteswap> out;
+		int[] walkStates; // state before each step
+		int[] walkEdges; // edge taken at each step
+
+		Search(int start, Consumer<Siteswap> out) {
+			this.start = start;
+			this.startMask = graph.mask(start);
+			this.out = out;
+			this.walkStates = new int[numSteps];
+			this.walkEdges = new int[numSteps];
+		}
+
+		void run() {
+			this.extend(this.start, 0);
+		}
+
+		private void extend(int state, int step) {
+			if(step == numSteps) {
+				if(state == this.start) {
+					this.emitIfCanonical();
+				}
+				return;
+			}
+			// balls already in the air past the end of the walk have to land where the start state has them
+			int stepsLeft = numSteps - step;
+			long mask = graph.mask(state);
+			if(stepsLeft * graph.numHands() < 64 && ((mask >>> (stepsLeft * graph.numHands())) & ~this.startMask) != 0) {
+				return;
+			}
+			this.walkStates[step] = state;
+			int end = graph.edgeStart(state) + graph.outDegree(state);
+			for(int e=graph.edgeStart(state); e<end; e++) {
+				int target = graph.edgeTarget(e);
+				// the starting state has to be the lowest-numbered one on the walk
+				if(target < this.start) {
+					continue;
+				}
+				this.walkEdges[step] = e;
+				this.extend(target, step + 1);
+			}
+		}
+
+		private void emitIfCanonical() {
+			// of the rotations that also start here, this one has to come strictly first
+			// (if it ties with one, the walk is a shorter pattern repeated)
+			for(int r=1; r<numSteps; r++) {
+				if(this.walkStates[r] == this.start && this.compareRotations(r, 0) >= 0) {
+					return;
+				}
+			}
+			// print the pattern starting from its largest rotation
+			Siteswap ss = graph.walkSiteswap(this.walkEdges, graph.largestRotation(this.walkEdges, numSteps), numSteps);
+			if(!ss.isValid()) {
+				Util.printf("ERROR: generated invalid siteswap " + ss.toString(), Util.DebugLevel.ERROR);
+				return;
+			}
+			this.out.accept(ss);
+		}
+
+		// compare the throws of the walk starting at step r1 with those starting at step r2
+		private int compareRotations(int r1, int r2) {
+			return graph.compareWalks(this.walkEdges, r1, this.walkEdges, r2, numSteps);
+		}
+	}
+
+	// Johnson's algorithm for the simple cycles through one starting state (and higher-numbered
+	// ones), with at most numSteps steps. Johnson's blocked flags don't work with a limit on the
+	// length, since a state that can't get back to the start from deep in the walk might from
+	// closer in, so as in Gupta and Suzumura's bounded version, each state has a lock instead:
+	// it's only tried from a depth less than its lock. A state gets locked at its depth when
+	// nothing comes of it, and when a way back is found, the lock is raised as far as that way
+	// back allows, along with those of the states that were waiting on it.
+	private class PrimeSearch {
+		int start;
+		Consumer<Siteswap> out;
+		int[] locks;
+		int[][] waiting; // states locked because they only lead to each state
+		int[] numWaiting;
+		boolean[] onWalk;
+		int[] walkEdges; // edge taken at each step
+
+		PrimeSearch(int start, Consumer<Siteswap> out) {
+			this.start = start;
+			this.out = out;
+			this.locks = new int[graph.numStates()];
+			Arrays.fill(this.locks, NO_WAY_BACK);
+			this.waiting = new int[graph.numStates()][];
+			this.numWaiting = new int[graph.numStates()];
+			this.onWalk = new boolean[graph.numStates()];
+			this.walkEdges = new int[numSteps];
+		}
+
+		void run() {
+			this.extend(this.start, 0);
+		}
+
+		// the fewest steps back to the start found from the given state, or NO_WAY_BACK
+		private int extend(int state, int step) {
+			int stepsBack = NO_WAY_BACK;
+			this.locks[state] = step;
+			this.onWalk[state] = true;
+			int end = graph.edgeStart(state) + graph.outDegree(state);
+			for(int e=graph.edgeStart(state); e<end; e++) {
+				int target = graph.edgeTarget(e);
+				this.walkEdges[step] = e;
+				if(target == this.start) {
+					this.emit(step + 1);
+					stepsBack = 1;
+				} else if(target > this.start && step + 1 < this.locks[target] && step + 1 < numSteps) {
+					stepsBack = Math.min(stepsBack, 1 + this.extend(target, step + 1));
+				}
+			}
+			if(stepsBack < NO_WAY_BACK) {
+				this.relaxLock(state, stepsBack);
+			}
+			// whether or not it got back, it could get back sooner once the states it goes to do
+			for(int e=graph.edgeStart(state); e<end; e++) {
+				int target = graph.edgeTarget(e);
+				if(target > this.start) {
+					this.addWaiting(target, state);
+				}
+			}
+			this.onWalk[state] = false;
+			return stepsBack;
+		}
+
+		// the state can get back to the start in the given number of steps
+		private void relaxLock(int state, int stepsBack) {
+			if(this.locks[state] < numSteps - stepsBack + 1) {
+				this.locks[state] = numSteps - stepsBack + 1;
+				for(int i=0; i<this.numWaiting[state]; i++) {
+					int waiter = this.waiting[state][i];
+					if(!this.onWalk[waiter]) {
+						this.relaxLock(waiter, stepsBack + 1);
+					}
+				}
+			}
+		}
+
+		private void addWaiting(int state, int waiter) {
+			for(int i=0; i<this.numWaiting[state]; i++) {
+				if(this.waiting[state][i] == waiter) {
+					return;
+				}
+			}
+			if(this.waiting[state] == null) {
+				this.waiting[state] = new int[4];
+			} else if(this.numWaiting[state] == this.waiting[state].length) {
+				this.waiting[state] = Arrays.copyOf(this.waiting[state], 2 * this.numWaiting[state]);
+			}
+			this.waiting[state][this.numWaiting[state]++] = waiter;
+		}
+
+		private void emit(int length) {
+			Siteswap ss = graph.walkSiteswap(this.walkEdges, graph.largestRotation(this.walkEdges, length), length);
+			if(!ss.isValid()) {
+				Util.printf("ERROR: generated invalid siteswap " + ss.toString(), Util.DebugLevel.ERROR);
+				return;
+			}
+			this.out.accept(ss);
+		}
+	}
+
+}
@@ -57,6 +57,17 @@ public enum SiteswapNotation {
 		}
 	}
 
+	// height of a plain throw written as one digit or letter, or -1 for any other character
+	static int vanillaThrowHeight(char c) {
+		if(c >= '0' && c <= '9') {
+			return c - '0';
+		} else if(c >= 'a' && c <= 'z') {
+			return c - 87;
+		} else {
+			return -1;
+		}
+	}
+
 	/* siteswap regex patterns */
 	// the empty pattern (need a way of notating it without the empty string, for printing)
 	static final String emptyNotation = "(||\\.)";
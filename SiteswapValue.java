@@ -0,0 +1,86 @@
+package siteswapsuite;
+
+import java.util.Arrays;
+
+// A Siteswap that can't be changed, packed into flat arrays like PackedSiteswap, with its hash
+// worked out once. Two are equal if they have the same tosses, in the same order, at every site.
+// (Siteswap itself can change, so it has no value equality of its own.)
+//
+// SiteswapValue.of() gives the one instance of each distinct pattern still in use, so that
+// instances can be compared with ==.
+public class SiteswapValue {
+
+	private static final Interner<SiteswapValue> interned = new Interner<SiteswapValue>();
+
+	private final PackedSiteswap packed; // never handed out, so never changed
+	private final int hash;
+
+	// the shared instance equal to the given pattern
+	public static SiteswapValue of(Siteswap ss) {
+		return interned.intern(new SiteswapValue(ss));
+	}
+
+	// a new instance, not the shared one
+	SiteswapValue(Siteswap ss) {
+		this.packed = new PackedSiteswap(ss);
+		int hash = 31 * this.packed.numHands + this.packed.period;
+		hash = 31 * hash + Arrays.hashCode(this.packed.siteStart);
+		for(int i=0; i<this.packed.numTosses; i++) {
+			hash = 31 * hash + this.packed.heights[i];
+			hash = 31 * hash + this.packed.destHands[i];
+			hash = 31 * hash + this.packed.charges[i];
+		}
+		this.hash = hash;
+	}
+
+	// querying basic info
+	public int numHands() {
+		return this.packed.numHands();
+	}
+
+	public int period() {
+		return this.packed.period();
+	}
+
+	public int numTossesAtSite(int atBeat, int fromHand) {
+		return this.packed.numTossesAtSite(atBeat, fromHand);
+	}
+
+	// the returned Toss is a fresh object; changing it does not change the pattern
+	public Toss getToss(int atBeat, int fromHand, int tossIndex) {
+		return this.packed.getToss(atBeat, fromHand, tossIndex);
+	}
+
+	// a Siteswap with the same tosses, to change
+	public Siteswap toSiteswap() {
+		return this.packed.unpack();
+	}
+
+	public boolean equals(Object other) {
+		if(this == other) {
+			return true;
+		}
+		if(!(other instanceof SiteswapValue)) {
+			return false;
+		}
+		PackedSiteswap a = this.packed;
+		PackedSiteswap b = ((SiteswapValue)other).packed;
+		return this.hash == ((SiteswapValue)other).hash
+			&& a.numHands == b.numHands
+			&& a.period == b.period
+			&& Arrays.equals(a.siteStart, b.siteStart)
+			&& Arrays.equals(a.heights, 0, a.numTosses, b.heights, 0, b.numTosses)
+			&& Arrays.equals(a.destHands, 0, a.numTosses, b.destHands, 0, b.numTosses)
+			&& Arrays.equals(a.charges, 0, a.numTosses, b.charges, 0, b.numTosses);
+	}
+
+	public int hashCode() {
+		return this.hash;
+	}
+
+	// same format as Siteswap.toString()
+	public String toString() {
+		return this.packed.toString();
+	}
+
+}
@@ -1,15 +1,17 @@
 package siteswapsuite;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class State {
 
 	int numHands; // number of hands
-	Node nowNode; // node that's next in line to be thrown from
-	int finiteLength; // number of nodes in the finite portion of the state
-	Node firstRepeatedNode; // earliest node in the repeated portion
-	int repeatedLength; // number of nodes in the repeated portion
+	private int[] charges; // ring buffer holding the finite portion, numHands entries per beat
+	private int capacity; // number of beats the ring buffer can hold (always a power of two)
+	private int nowIndex; // beat of the ring buffer that's next in line to be thrown from
+	int finiteLength; // number of beats in the finite portion of the state
+	private int[] repeatedCharges; // the repeated portion, numHands entries per beat
+	private int repeatedStart; // beat of repeatedCharges that comes right after the finite portion
+	int repeatedLength; // number of beats in the repeated portion
 
 	public int numHands() { return this.numHands; }
 	public int finiteLength() { return this.finiteLength; }
@@ -18,212 +20,371 @@ public class State {
 	// initialize an empty state
 	public State(int numHands) {
 		this.numHands = numHands;
-		this.nowNode = null;
+		this.capacity = 4;
+		this.charges = new int[this.capacity * numHands];
+		this.nowIndex = 0;
 		this.finiteLength = 0;
-		this.firstRepeatedNode = null;
+		this.repeatedCharges = new int[0];
+		this.repeatedStart = 0;
 		this.repeatedLength = 0;
 	}
 
+	// a copy of a state value, that can be changed
+	State(StateValue value) {
+		this(value.numHands);
+		this.ensureFiniteLength(value.finiteLength);
+		for(int b=0; b<value.finiteLength; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				this.charges[this.slot(b, h)] = value.charges[b * this.numHands + h];
+			}
+		}
+		if(value.repeatedLength > 0) {
+			this.repeatedCharges = Arrays.copyOfRange(value.charges, value.finiteLength * this.numHands, value.charges.length);
+			this.repeatedLength = value.repeatedLength;
+		}
+	}
+
 	// construct a state from a siteswap...
 	public State(Siteswap ss) {
 		this(ss.numHands());
+		int period = ss.period();
+		if(period > 0) {
+			// the charge needed at each beat i is the outDegree of the site at i, minus whatever lands there
+			// from tosses made before it. this is found directly from each toss's landing offset, treating
+			// negative tosses as the antitosses antitossify() would turn them into.
+			int numTosses = 0;
+			for(int b=0; b<period; b++) {
+				for(int h=0; h<this.numHands; h++) {
+					numTosses += ss.numTossesAtSite(b, h);
+				}
+			}
+			int[] outDegrees = new int[period * this.numHands];
+			int[] tossBeats = new int[numTosses];
+			int[] tossHands = new int[numTosses];
+			int[] tossHeights = new int[numTosses];
+			int[] tossDestHands = new int[numTosses];
+			int[] tossCharges = new int[numTosses];
+			int numFiniteTosses = 0;
+			int maxHeight = 0;
+			// first pass: tally outDegrees and finite landing offsets
+			for(int b=0; b<period; b++) {
+				for(int h=0; h<this.numHands; h++) {
+					for(int t=0; t<ss.numTossesAtSite(b, h); t++) {
+						Toss toss = ss.getToss(b, h, t);
+						ExtendedInteger height = toss.height();
+						if(height.isInfinite()) {
+							if(height.infiniteValue() == InfinityType.POSITIVE_INFINITY) {
+								outDegrees[b * this.numHands + h] += toss.charge();
+							} else {
+								outDegrees[b * this.numHands + h] -= 1;
+							}
+							continue;
+						}
+						int k = height.finiteValue();
+						if(k >= 0) {
+							tossBeats[numFiniteTosses] = b;
+							tossHands[numFiniteTosses] = h;
+							tossHeights[numFiniteTosses] = k;
+							tossDestHands[numFiniteTosses] = toss.destHand();
+							tossCharges[numFiniteTosses] = toss.charge();
+							outDegrees[b * this.numHands + h] += toss.charge();
+						} else {
+							// an antitoss of height -k from the site this toss lands at, back to this hand
+							k = -k;
+							int fromBeat = ((b - k) % period + period) % period;
+							tossBeats[numFiniteTosses] = fromBeat;
+							tossHands[numFiniteTosses] = toss.destHand();
+							tossHeights[numFiniteTosses] = k;
+							tossDestHands[numFiniteTosses] = h;
+							tossCharges[numFiniteTosses] = -1;
+							outDegrees[fromBeat * this.numHands + toss.destHand()] -= 1;
+						}
+						maxHeight = Math.max(maxHeight, k);
+						numFiniteTosses++;
+					}
+				}
+			}
+			// the landings from one period's worth of tosses made before beat 0 are what keeps changing
+			// from one period to the next. once past the last beat any of them reaches, the charges repeat.
+			int[] pastLandings = new int[(maxHeight + 1) * this.numHands];
+			for(int i=0; i<numFiniteTosses; i++) {
+				int landing = tossBeats[i] - period + tossHeights[i];
+				if(landing >= 0) {
+					pastLandings[landing * this.numHands + tossDestHands[i]] += tossCharges[i];
+				}
+			}
+			int lastChangingBeat = -1;
+			for(int s=0; s<pastLandings.length; s++) {
+				if(pastLandings[s] != 0) {
+					lastChangingBeat = s / this.numHands;
+				}
+			}
+			int numPeriods = (lastChangingBeat < 0 ? 0 : lastChangingBeat / period + 1);
+			int length = (numPeriods + 1) * period;
+			// second pass: fill in outDegrees minus landings, over every period up to and including the repeated one
+			this.ensureFiniteLength(length);
+			for(int b=0; b<length; b++) {
+				for(int h=0; h<this.numHands; h++) {
+					this.charges[this.slot(b, h)] = outDegrees[(b % period) * this.numHands + h];
+				}
+			}
+			for(int base=0; base<length; base+=period) {
+				for(int i=0; i<numFiniteTosses; i++) {
+					int landing = base + tossBeats[i] + tossHeights[i];
+					// a zero-toss only counts towards the hands still to be thrown from on its own beat
+					if((tossHeights[i] > 0 || tossDestHands[i] > tossHands[i]) && landing < length) {
+						this.charges[this.slot(landing, tossDestHands[i])] -= tossCharges[i];
+					}
+				}
+			}
+			// the last period is the repeated portion, unless it's all zeroes
+			int sectionStart = numPeriods * period;
+			boolean isAllZeros = true;
+			for(int b=sectionStart; b<length; b++) {
+				if(!this.beatIsEmpty(b)) {
+					isAllZeros = false;
+				}
+			}
+			if(isAllZeros) {
+				if(sectionStart > 0) {
+					this.finiteLength = sectionStart;
+				}
+				// drop trailing zero beats, unless the whole thing is zeroes
+				int lastNonZero = this.finiteLength - 1;
+				while(lastNonZero >= 0 && this.beatIsEmpty(lastNonZero)) {
+					lastNonZero--;
+				}
+				if(lastNonZero >= 0) {
+					this.finiteLength = lastNonZero + 1;
+				}
+			} else {
+				this.repeatedCharges = new int[period * this.numHands];
+				for(int b=0; b<period; b++) {
+					for(int h=0; h<this.numHands; h++) {
+						this.repeatedCharges[b * this.numHands + h] = this.getChargeAtBeatAtHand(sectionStart + b, h);
+					}
+				}
+				this.repeatedStart = 0;
+				this.repeatedLength = period;
+				this.finiteLength = sectionStart;
+			}
+		}
+		// cross-check against the simulation when debugging
+		if(Util.debugLevel == Util.DebugLevel.DEBUG) {
+			State simulated = State.simulate(ss);
+			if(!simulated.toString().equals(this.toString())) {
+				Util.printf("ERROR: state " + this.toString() + " of " + ss.toString() + " disagrees with simulated state " + simulated.toString(), Util.DebugLevel.ERROR);
+			}
+		}
+	}
+
+	// compute the state of a siteswap by juggling it from an empty state, one period at a time,
+	// until nothing changes. (this is the original algorithm, kept as a reference for the closed form above.)
+	static State simulate(Siteswap ss) {
+		State out = new State(ss.numHands());
 		ss = ss.deepCopy(); // don't change the object we're given
 		ss.antitossify(); // life is simpler without negative tosses
-		// Util.printf(ss, Util.DebugLevel.DEBUG);
 		if(ss.period() > 0) {
 			// we construct a State that represents the state associated with the given siteswap.
 			// but to do this we need a State object that keeps track of the current state we're
 			// actually in as we juggle through the given pattern. (this will not contain the
 			// repeated portion of the final state we end up with.)
-			State simulationState = new State(this.numHands);
+			State simulationState = new State(out.numHands);
 			// extend it to have length 1, so we can actually do tosses on it
-			simulationState.getFiniteNode(0);
+			simulationState.ensureFiniteLength(1);
 			// further, we sample this state at each period, and terminate the algorithm when there is
 			// no change from one period to the next
-			State simulationStateAtLastIteration = new State(this.numHands);
-			// extend it to have length 1, so we can actually do tosses on it
-			simulationStateAtLastIteration.getFiniteNode(0);
-			// thisCurNode is the furthest node along the state being constructed ('this')
-			Node thisCurNode = null;
-			// the most recently added node (?)
-			Node endOfLastSection = null;
+			State simulationStateAtLastIteration;
+			// beat of 'this' at which the most recent period starts
+			int sectionStart = 0;
 			// whether no changes occurred in the last period
 			boolean isAllZeros;
 
 			// compute the finite portion of the state
-			// --> simulate juggling the pattern until the state 
+			// --> simulate juggling the pattern until the state
 			//     doesn't change from one period to the next
 			do {
 				Util.printf("", Util.DebugLevel.DEBUG);
 				Util.printf(" sim: " + simulationState.toString(), Util.DebugLevel.DEBUG);
-				Util.printf("prev: " + simulationStateAtLastIteration.toString(), Util.DebugLevel.DEBUG);
-				Util.printf("this: " + this.toString(), Util.DebugLevel.DEBUG);
+				Util.printf("out: " + out.toString(), Util.DebugLevel.DEBUG);
 				simulationStateAtLastIteration = simulationState.deepCopy(); // sample the simulation state
-
-				// assume this next series of nodes will be the repeated portion
-				if(thisCurNode != null) {
-					// merge previous section into finite portion, leaving an empty repeated portion to be filled in this iteration
-					Util.printf("merging repeated section into finite portion", Util.DebugLevel.DEBUG);
-					this.finiteLength += ss.period();
-					this.repeatedLength = 0;
-					Util.printf("this: " + this.toString(), Util.DebugLevel.DEBUG);
-				}
-				endOfLastSection = thisCurNode;
+				// assume this next period will be the repeated portion
+				sectionStart = out.finiteLength;
 				isAllZeros = true;
 				for(int b=0; b<ss.period(); b++) {
-					Util.printf("b = " + b, Util.DebugLevel.DEBUG);
-					// add a new Node for a new beat
-					Util.printf("\tadding new node", Util.DebugLevel.DEBUG);
-					Node newNode = new Node();
-					if(b == 0) {
-						this.firstRepeatedNode = newNode;
-					}
-					if(thisCurNode == null) { // if this is the very first Node we're adding to the state
-						this.nowNode = newNode;
-						thisCurNode = newNode;
-					} else {
-						thisCurNode.prev = newNode;
-						thisCurNode = newNode;
-					}
-					this.repeatedLength++;
-					Util.printf("\tthis: " + this.toString(), Util.DebugLevel.DEBUG);
-					for(int h=0; h<this.numHands; h++) {
-						Util.printf("\th = " + h, Util.DebugLevel.DEBUG);
+					out.ensureFiniteLength(sectionStart + b + 1);
+					for(int h=0; h<out.numHands; h++) {
 						// set value to charge needed at this site
 						int neededCharge = ss.outDegreeAtSite(b, h);
-						int curCharge = simulationState.getFiniteNode(0).getChargeAtHand(h);
+						int curCharge = simulationState.getChargeAtBeatAtHand(0, h);
 						if(curCharge != neededCharge) {
-							Util.printf("\t\taccounting for balls/antiballs", Util.DebugLevel.DEBUG);
-							Util.printf("\t\tneeded charge: " + neededCharge, Util.DebugLevel.DEBUG);
-							Util.printf("\t\tcurrent charge: " + curCharge, Util.DebugLevel.DEBUG);
-							thisCurNode.setChargeAtHand(h, neededCharge - curCharge);
+							out.setChargeAtBeatAtHand(sectionStart + b, h, neededCharge - curCharge);
 							isAllZeros = false;
-						} else {
-							Util.printf("\t\tno need to account for balls/antiballs", Util.DebugLevel.DEBUG);
 						}
-						Util.printf("\t\tthis: " + this.toString(), Util.DebugLevel.DEBUG);
 						// then simulate the tosses at this site on simulationState
 						for(int t=0; t<ss.numTossesAtSite(b, h); t++) {
 							Toss toss = ss.getToss(b, h, t);
-							Util.printf("\t\t\tsimulating toss: " + toss.toString(), Util.DebugLevel.DEBUG);
 							ExtendedInteger height = toss.height();
 							if(!height.isInfinite()) {
 								switch(toss.charge()) {
 									case 1:
-										simulationState.getFiniteNode(height.finiteValue()).incChargeAtHand(toss.destHand());
+										simulationState.incChargeOfNodeAtHand(height.finiteValue(), toss.destHand());
 										break;
 									case -1:
-										simulationState.getFiniteNode(height.finiteValue()).decChargeAtHand(toss.destHand());
+										simulationState.decChargeOfNodeAtHand(height.finiteValue(), toss.destHand());
 										break;
 									default:
 										break;
 								}
 							} // we don't care about infinite tosses, cuz they don't affect the rest of the state
-							Util.printf("\t\t\tsim: " + simulationState.toString(), Util.DebugLevel.DEBUG);
 						}
 					}
 					simulationState.advanceTime();
-					Util.printf("\t\tadvanced time", Util.DebugLevel.DEBUG);
-					Util.printf("\t\tsim: " + simulationState.toString(), Util.DebugLevel.DEBUG);
 				}
 			} while(!simulationState.equals(simulationStateAtLastIteration));
 			Util.printf(" sim: " + simulationState.toString(), Util.DebugLevel.DEBUG);
-			Util.printf("prev: " + simulationStateAtLastIteration.toString(), Util.DebugLevel.DEBUG);
-			Util.printf("this: " + this.toString(), Util.DebugLevel.DEBUG);
+			Util.printf("out: " + out.toString(), Util.DebugLevel.DEBUG);
 			if(isAllZeros) { // if there is no repeated portion in the final product
 				Util.printf("removing repeated portion", Util.DebugLevel.DEBUG);
-				if(endOfLastSection != null) {
-					endOfLastSection.prev = null;
+				if(sectionStart > 0) {
+					out.finiteLength = sectionStart;
 				}
-				this.firstRepeatedNode = null;
-				this.repeatedLength = 0;
-				Util.printf("this: " + this.toString(), Util.DebugLevel.DEBUG);
 				Util.printf("trimming extra zeroes in finite portion", Util.DebugLevel.DEBUG);
-				// -- remove unnecessary zero nodes --
-				// first skip any zero nodes at the start
-				Node cur = this.nowNode;
-				this.finiteLength = 0; // re-compute this during the process
-				while(cur != null && cur.isEmpty()) {
-					this.finiteLength++;
-					cur = cur.prev;
+				// drop trailing zero beats, unless the whole thing is zeroes
+				int lastNonZero = out.finiteLength - 1;
+				while(lastNonZero >= 0 && out.beatIsEmpty(lastNonZero)) {
+					lastNonZero--;
 				}
-				// then find the last nonzero node
-				Node lastNonZero = cur;
-				int lengthOfNewSection = 0;
-				while(cur != null) {
-					lengthOfNewSection++;
-					if(!cur.isEmpty()) {
-						lastNonZero = cur;
-						this.finiteLength += lengthOfNewSection;
-						lengthOfNewSection = 0;
-					}
-					cur = cur.prev;
-				}
-				// and make it the last node
-				if(lastNonZero != null) {
-					lastNonZero.prev = null;
+				if(lastNonZero >= 0) {
+					out.finiteLength = lastNonZero + 1;
 				}
-				Util.printf("this: " + this.toString(), Util.DebugLevel.DEBUG);
 			} else { // if there is one
-				this.repeatedLength = ss.period();
+				// move the most recent period into the repeated portion
+				out.repeatedCharges = new int[ss.period() * out.numHands];
+				for(int b=0; b<ss.period(); b++) {
+					for(int h=0; h<out.numHands; h++) {
+						out.repeatedCharges[b * out.numHands + h] = out.getChargeAtBeatAtHand(sectionStart + b, h);
+					}
+				}
+				out.repeatedStart = 0;
+				out.repeatedLength = ss.period();
+				out.finiteLength = sectionStart;
 			}
+			Util.printf("out: " + out.toString(), Util.DebugLevel.DEBUG);
 			Util.printf("\n", Util.DebugLevel.DEBUG);
 		}
+		return out;
+	}
+
+	// index into the ring buffer of the given hand at the given beat of the finite portion
+	private int slot(int beatIndex, int handIndex) {
+		return ((this.nowIndex + beatIndex) & (this.capacity - 1)) * this.numHands + handIndex;
+	}
+
+	// index into repeatedCharges of the given hand at the given beat past the finite portion
+	private int repeatedSlot(int beatsPastFinite, int handIndex) {
+		return ((this.repeatedStart + beatsPastFinite) % this.repeatedLength) * this.numHands + handIndex;
+	}
+
+	// grow the ring buffer so it can hold at least the given number of beats
+	private void ensureCapacity(int numBeats) {
+		if(numBeats <= this.capacity) {
+			return;
+		}
+		int newCapacity = this.capacity;
+		while(newCapacity < numBeats) {
+			newCapacity *= 2;
+		}
+		int[] newCharges = new int[newCapacity * this.numHands];
+		for(int b=0; b<this.finiteLength; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				newCharges[b * this.numHands + h] = this.charges[this.slot(b, h)];
+			}
+		}
+		this.charges = newCharges;
+		this.capacity = newCapacity;
+		this.nowIndex = 0;
 	}
 
-	Node getFiniteNode(int beatIndex) {
-		if(this.finiteLength == 0) {
-			this.nowNode = new Node();
-			this.finiteLength = 1;
-		}
-		Node curNode = this.nowNode;
-		for(int i=0; i<beatIndex; i++) {
-			if(curNode.prev == null) {
-				Node newLastFiniteNode = new Node();
-				curNode.prev = newLastFiniteNode;
-				this.finiteLength++;
+	// extend the finite portion to the given number of beats, unrolling the repeated portion into it if there is one
+	void ensureFiniteLength(int length) {
+		this.ensureCapacity(length);
+		while(this.finiteLength < length) {
+			for(int h=0; h<this.numHands; h++) {
+				if(this.repeatedLength > 0) {
+					this.charges[this.slot(this.finiteLength, h)] = this.repeatedCharges[this.repeatedSlot(0, h)];
+				} else {
+					this.charges[this.slot(this.finiteLength, h)] = 0;
+				}
+			}
+			if(this.repeatedLength > 0) {
+				this.repeatedStart = (this.repeatedStart + 1) % this.repeatedLength;
 			}
-			curNode = curNode.prev;
+			this.finiteLength++;
 		}
-		return curNode;
+	}
+
+	void setChargeAtBeatAtHand(int b, int h, int charge) {
+		this.ensureFiniteLength(b + 1);
+		this.charges[this.slot(b, h)] = charge;
 	}
 
 	void incChargeOfNodeAtHand(int b, int h) {
-		this.getFiniteNode(b).incChargeAtHand(h);
+		this.ensureFiniteLength(b + 1);
+		this.charges[this.slot(b, h)]++;
 	}
 
 	void decChargeOfNodeAtHand(int b, int h) {
-		this.getFiniteNode(b).decChargeAtHand(h);
+		this.ensureFiniteLength(b + 1);
+		this.charges[this.slot(b, h)]--;
 	}
 
 	void incChargeOfNowNodeAtHand(int h) {
-		this.nowNode.incChargeAtHand(h);
+		this.incChargeOfNodeAtHand(0, h);
 	}
 
 	void decChargeOfNowNodeAtHand(int h) {
-		this.nowNode.decChargeAtHand(h);
+		this.decChargeOfNodeAtHand(0, h);
 	}
 
 	void advanceTime() {
-		if(this.nowNode != null) {
-			this.nowNode = this.nowNode.prev;
+		if(this.finiteLength > 0) {
+			this.nowIndex = (this.nowIndex + 1) & (this.capacity - 1);
 			this.finiteLength--;
+		} else if(this.repeatedLength > 0) {
+			this.repeatedStart = (this.repeatedStart + 1) % this.repeatedLength;
 		}
 	}
 
 	void shiftBackward() {
-		Node newNode = new Node();
-		newNode.prev = this.nowNode;
-		this.nowNode = newNode;
+		this.ensureCapacity(this.finiteLength + 1);
+		this.nowIndex = (this.nowIndex - 1) & (this.capacity - 1);
+		for(int h=0; h<this.numHands; h++) {
+			this.charges[this.slot(0, h)] = 0;
+		}
 		this.finiteLength++;
 	}
 
+	private boolean beatIsEmpty(int b) {
+		for(int h=0; h<this.numHands; h++) {
+			if(this.getChargeAtBeatAtHand(b, h) != 0)
+				return false;
+		}
+		return true;
+	}
+
 	public boolean nowNodeIsEmpty() {
-		return this.nowNode.isEmpty();
+		return this.beatIsEmpty(0);
 	}
 
 	public int getChargeAtBeatAtHand(int b, int h) {
-		return this.getFiniteNode(b).getChargeAtHand(h);
+		if(b < this.finiteLength) {
+			return this.charges[this.slot(b, h)];
+		} else if(this.repeatedLength > 0) {
+			return this.repeatedCharges[this.repeatedSlot(b - this.finiteLength, h)];
+		} else {
+			return 0;
+		}
 	}
 
 	public Siteswap getTransitionToSelf(int minTransitionLength) {
@@ -236,37 +397,38 @@ public class State {
 		return ret;
 	}
 
+	private static int gcd(int a, int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+
+	// states are equal if they have the same charges at every beat, however many of them are written
+	// down as the finite portion. states can change, so they don't hash; use StateValue for that
 	public boolean equals(State other) {
 		if(other == null)
 			return false;
 		if(this.numHands != other.numHands)
 			return false;
-		Node thisCurNode = this.nowNode;
-		Node otherCurNode = other.nowNode;
-		while(thisCurNode != null || otherCurNode != null) {
-			if(thisCurNode != null && otherCurNode != null) {
-				if(!thisCurNode.equals(otherCurNode))
-					return false;
-				else {
-					thisCurNode = thisCurNode.prev;
-					otherCurNode = otherCurNode.prev;
-				}
-			} else if(thisCurNode == null) {
-				if(!otherCurNode.isEmpty())
-					return false;
-				else
-					otherCurNode = otherCurNode.prev;
-			} else if(otherCurNode == null) {
-				if(!thisCurNode.isEmpty())
+		// past both finite portions, each state repeats with its own period (or is all zeroes),
+		// so comparing one common period beyond that is enough
+		int commonPeriod;
+		if(this.repeatedLength == 0) {
+			commonPeriod = other.repeatedLength;
+		} else if(other.repeatedLength == 0) {
+			commonPeriod = this.repeatedLength;
+		} else {
+			commonPeriod = this.repeatedLength / gcd(this.repeatedLength, other.repeatedLength) * other.repeatedLength;
+		}
+		int length = Math.max(this.finiteLength, other.finiteLength) + commonPeriod;
+		for(int b=0; b<length; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				if(this.getChargeAtBeatAtHand(b, h) != other.getChargeAtBeatAtHand(b, h))
 					return false;
-				else
-					thisCurNode = thisCurNode.prev;
 			}
 		}
 		return true;
 	}
 
-	class DiffSum {
+	static class DiffSum {
 		int tosses, antiTosses, catches, antiCatches;
 		public String toString() {
 			String ret = "";
@@ -279,13 +441,11 @@ public class State {
 	}
 
 	DiffSum diffSums(State other) {
-		Node thisCurNode = this.nowNode;
-		Node otherCurNode = other.nowNode;
 		DiffSum diffs = new DiffSum();
 		for(int i=0; i<this.finiteLength; i++) {
 			for(int h=0; h<this.numHands; h++) {
-				int t = thisCurNode.getChargeAtHand(h);
-				int o = otherCurNode.getChargeAtHand(h);
+				int t = this.getChargeAtBeatAtHand(i, h);
+				int o = other.getChargeAtBeatAtHand(i, h);
 				if(o < t) {
 					if(t <= 0) {
 						// o < t <= 0
@@ -316,29 +476,196 @@ public class State {
 					diffs.catches -= t;
 				}
 			}
-			thisCurNode = thisCurNode.prev;
-			otherCurNode = otherCurNode.prev;
 		}
 		return diffs;
 	}
 
+	// the sums of diffSums() for two finite states, kept up to date while the states are changed
+	// through this counter rather than recounted from every charge each time. from must stay at
+	// least as long as to, as it does in a transition, so that every beat is counted.
+	// each state is kept as bitmasks over its beats, one for each hand and each level of charge:
+	// the beats where the charge is at least m, and those where it's at most -m. the sums are then
+	// counts of bits set in one state's masks and not the other's, 64 beats at a time. changing the
+	// charge of the now node only touches bit 0, and time passing only shifts the masks by a bit.
+	static class DiffCounter extends DiffSum {
+		private State from;
+		private State to;
+		private int numHands;
+		private int numLevels; // highest absolute charge the masks have room for
+		private int numWords; // length of each mask
+		// masks[side][level-1][hand][word], where side is FROM_POSITIVE, etc.
+		private long[][][][] masks;
+		private static final int FROM_POSITIVE = 0;
+		private static final int FROM_NEGATIVE = 1;
+		private static final int TO_POSITIVE = 2;
+		private static final int TO_NEGATIVE = 3;
+
+		DiffCounter(State from, State to) {
+			this.from = from;
+			this.to = to;
+			this.numHands = from.numHands;
+			this.numLevels = 0;
+			this.numWords = Math.max(from.finiteLength, to.finiteLength) / 64 + 1;
+			int maxCharge = 1;
+			for(int b=0; b<Math.max(from.finiteLength, to.finiteLength); b++) {
+				for(int h=0; h<this.numHands; h++) {
+					maxCharge = Math.max(maxCharge, Math.abs(from.getChargeAtBeatAtHand(b, h)));
+					maxCharge = Math.max(maxCharge, Math.abs(to.getChargeAtBeatAtHand(b, h)));
+				}
+			}
+			this.masks = new long[4][0][][];
+			this.ensureLevels(maxCharge);
+			for(int b=0; b<from.finiteLength; b++) {
+				for(int h=0; h<this.numHands; h++) {
+					this.setBits(FROM_POSITIVE, b, h, from.getChargeAtBeatAtHand(b, h));
+				}
+			}
+			for(int b=0; b<to.finiteLength; b++) {
+				for(int h=0; h<this.numHands; h++) {
+					this.setBits(TO_POSITIVE, b, h, to.getChargeAtBeatAtHand(b, h));
+				}
+			}
+			this.recount();
+		}
+
+		void incFromNow(int h) {
+			this.from.incChargeOfNowNodeAtHand(h);
+			this.setBits(FROM_POSITIVE, 0, h, this.from.getChargeAtBeatAtHand(0, h));
+			this.recount();
+		}
+
+		void decFromNow(int h) {
+			this.from.decChargeOfNowNodeAtHand(h);
+			this.setBits(FROM_POSITIVE, 0, h, this.from.getChargeAtBeatAtHand(0, h));
+			this.recount();
+		}
+
+		// shift the goal state backward, and make from as long as it
+		void shiftToBackward() {
+			this.to.shiftBackward();
+			this.from.ensureFiniteLength(this.to.finiteLength);
+			if(this.to.finiteLength >= 64 * this.numWords) {
+				this.numWords++;
+				for(int side=0; side<4; side++) {
+					for(int m=0; m<this.numLevels; m++) {
+						for(int h=0; h<this.numHands; h++) {
+							this.masks[side][m][h] = Arrays.copyOf(this.masks[side][m][h], this.numWords);
+						}
+					}
+				}
+			}
+			for(int side=TO_POSITIVE; side<=TO_NEGATIVE; side++) {
+				for(int m=0; m<this.numLevels; m++) {
+					for(int h=0; h<this.numHands; h++) {
+						long[] mask = this.masks[side][m][h];
+						for(int w=this.numWords-1; w>0; w--) {
+							mask[w] = (mask[w] << 1) | (mask[w-1] >>> 63);
+						}
+						mask[0] <<= 1;
+					}
+				}
+			}
+			this.recount();
+		}
+
+		void advanceTime() {
+			this.from.advanceTime();
+			this.to.advanceTime();
+			for(int side=0; side<4; side++) {
+				for(int m=0; m<this.numLevels; m++) {
+					for(int h=0; h<this.numHands; h++) {
+						long[] mask = this.masks[side][m][h];
+						for(int w=0; w<this.numWords-1; w++) {
+							mask[w] = (mask[w] >>> 1) | (mask[w+1] << 63);
+						}
+						mask[this.numWords-1] >>>= 1;
+					}
+				}
+			}
+			this.recount();
+		}
+
+		// make room for charges up to the given absolute value
+		private void ensureLevels(int maxCharge) {
+			if(maxCharge <= this.masks[0].length) {
+				return;
+			}
+			for(int side=0; side<4; side++) {
+				long[][][] newLevels = Arrays.copyOf(this.masks[side], maxCharge);
+				for(int m=this.masks[side].length; m<maxCharge; m++) {
+					newLevels[m] = new long[this.numHands][this.numWords];
+				}
+				this.masks[side] = newLevels;
+			}
+			this.numLevels = maxCharge;
+		}
+
+		// set the bits of the given beat and hand in the masks of one state (given by its positive side)
+		private void setBits(int positiveSide, int b, int h, int charge) {
+			this.ensureLevels(Math.abs(charge));
+			long bit = 1L << (b & 63);
+			for(int m=1; m<=this.numLevels; m++) {
+				long[] positive = this.masks[positiveSide][m-1][h];
+				long[] negative = this.masks[positiveSide + 1][m-1][h];
+				positive[b >>> 6] = (charge >= m ? positive[b >>> 6] | bit : positive[b >>> 6] & ~bit);
+				negative[b >>> 6] = (charge <= -m ? negative[b >>> 6] | bit : negative[b >>> 6] & ~bit);
+			}
+		}
+
+		private void recount() {
+			this.tosses = 0;
+			this.antiTosses = 0;
+			this.catches = 0;
+			this.antiCatches = 0;
+			for(int h=0; h<this.numHands; h++) {
+				for(int w=0; w<this.numWords; w++) {
+					for(int m=0; m<this.numLevels; m++) {
+						long fromPositive = this.masks[FROM_POSITIVE][m][h][w];
+						long fromNegative = this.masks[FROM_NEGATIVE][m][h][w];
+						long toPositive = this.masks[TO_POSITIVE][m][h][w];
+						long toNegative = this.masks[TO_NEGATIVE][m][h][w];
+						this.tosses += Long.bitCount(fromPositive & ~toPositive);
+						this.catches += Long.bitCount(toPositive & ~fromPositive);
+						this.antiTosses += Long.bitCount(fromNegative & ~toNegative);
+						this.antiCatches += Long.bitCount(toNegative & ~fromNegative);
+					}
+					// where from has antiballs and to has balls, diffSums() counts the balls
+					// as antitosses and the antiballs as catches
+					long mixed = this.masks[FROM_NEGATIVE][0][h][w] & this.masks[TO_POSITIVE][0][h][w];
+					if(mixed != 0) {
+						for(int m=0; m<this.numLevels; m++) {
+							int balls = Long.bitCount(mixed & this.masks[TO_POSITIVE][m][h][w]);
+							int antiballs = Long.bitCount(mixed & this.masks[FROM_NEGATIVE][m][h][w]);
+							this.catches += antiballs - balls;
+							this.antiTosses += balls - antiballs;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private int totalChargeAtBeat(int b) {
+		int charge = 0;
+		for(int h=0; h<this.numHands; h++)
+			charge += this.getChargeAtBeatAtHand(b, h);
+		return charge;
+	}
+
 	public ExtendedFraction numBalls() {
 		if(this.finiteLength + this.repeatedLength == 0) {
 			return new ExtendedFraction(new ExtendedInteger(0), 0);
 		}
 		int finitePortion = 0;
-		Node curNode = this.nowNode;
 		for(int i=0; i<this.finiteLength; i++) {
-			finitePortion += curNode.getTotalCharge();
-			curNode = curNode.prev;
+			finitePortion += this.totalChargeAtBeat(i);
 		}
 		int repeatedPortion = 0;
 		int signCounter = 0;
 		if(this.repeatedLength > 0) {
 			for(int i=0; i<this.repeatedLength; i++) {
-				signCounter += curNode.getTotalCharge();
+				signCounter += this.totalChargeAtBeat(this.finiteLength + i);
 				repeatedPortion += signCounter;
-				curNode = curNode.prev;
 			}
 			ExtendedInteger numerator;
 			int denominator;
@@ -359,122 +686,42 @@ public class State {
 
 	public State deepCopy() {
 		State out = new State(this.numHands);
+		out.ensureCapacity(this.finiteLength);
+		for(int b=0; b<this.finiteLength; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				out.charges[b * this.numHands + h] = this.charges[this.slot(b, h)];
+			}
+		}
 		out.finiteLength = this.finiteLength;
+		out.repeatedCharges = this.repeatedCharges.clone();
+		out.repeatedStart = this.repeatedStart;
 		out.repeatedLength = this.repeatedLength;
-		Node thisCurNode = this.nowNode;
-		Node otherCurNode;
-		if(this.nowNode != null) {
-			thisCurNode = this.nowNode;
-			out.nowNode = this.nowNode.deepCopy();
-			otherCurNode = out.nowNode;
-		} else
-			return out;
-		for(int i=1; i<this.finiteLength; i++) {
-			thisCurNode = thisCurNode.prev;
-			Node newNode = thisCurNode.deepCopy();
-			otherCurNode.prev = newNode;
-			otherCurNode = newNode;
-		}
-		if(this.firstRepeatedNode != null) {
-			thisCurNode = this.firstRepeatedNode;
-			out.firstRepeatedNode = this.firstRepeatedNode.deepCopy();
-			otherCurNode = out.firstRepeatedNode;
-		} else
-			return out;
-		for(int i=1; i<this.repeatedLength; i++) {
-			thisCurNode = thisCurNode.prev;
-			Node newNode = thisCurNode.deepCopy();
-			otherCurNode.prev = newNode;
-			otherCurNode = newNode;
-		}
 		return out;
 	}
 
+	private String beatToString(int b) {
+		String out = "[";
+		for(int h=0; h<this.numHands; h++) {
+			if(h > 0)
+				out += ", ";
+			out += this.getChargeAtBeatAtHand(b, h);
+		}
+		return out + "]";
+	}
+
 	public String toString() {
 		String out = "[";
-		Node n = this.nowNode;
 		for(int i=0; i<this.finiteLength; i++) {
-			out += n.toString();
-			n = n.prev;
+			out += this.beatToString(i);
 		}
 		if(this.repeatedLength > 0) {
 			out += ":";
 			for(int i=0; i<this.repeatedLength; i++) {
-				out += n.toString();
-				n = n.prev;
+				out += this.beatToString(this.finiteLength + i);
 			}
 		}
 		out += "]";
 		return out;
 	}
 
-	class Node {
-		private List<Charge> handCharges;
-		Node prev;
-		Node() {
-			this.handCharges = new ArrayList<Charge>();
-			this.prev = null;
-			for(int h=0; h<numHands; h++) {
-				this.handCharges.add(new Charge());
-			}
-		}
-		int getChargeAtHand(int handIndex) {
-			return this.handCharges.get(handIndex).value;
-		}
-		void setChargeAtHand(int handIndex, int newCharge) {
-			this.handCharges.get(handIndex).set(newCharge);
-		}
-		void incChargeAtHand(int handIndex) {
-			this.handCharges.get(handIndex).inc();
-		}
-		void decChargeAtHand(int handIndex) {
-			this.handCharges.get(handIndex).dec();
-		}
-		int getTotalCharge() {
-			int charge = 0;
-			for(int i=0; i<numHands; i++)
-				charge += this.handCharges.get(i).value;
-			return charge;
-		}
-		boolean isEmpty() {
-			for(int h=0; h<numHands; h++) {
-				if(this.handCharges.get(h).value != 0)
-					return false;
-			}
-			return true;
-		}
-		public String toString() {
-			return this.handCharges.toString();
-		}
-		public boolean equals(Node other) {
-			for(int h=0; h<numHands; h++) {
-				if(this.handCharges.get(h).value != other.handCharges.get(h).value)
-					return false;
-			}
-			return true;
-		}
-		private Node(Node toCopy) {
-			this.handCharges = new ArrayList<Charge>();
-			for(int h=0; h<numHands; h++) {
-				this.handCharges.add(new Charge(toCopy.handCharges.get(h).value));
-			}
-			this.prev = null;
-		}
-		Node deepCopy() {
-			return new Node(this);
-		}
-		private class Charge {
-			private int value;
-			private Charge() { this.value = 0; }
-			private Charge(int newValue) { this.value = newValue; }
-			private void set(int newValue) { this.value = newValue; }
-			private void inc() { this.value++; }
-			private void dec() { this.value--; }
-			//public String toString() { return Integer.toString(this.value); }
-			public String toString() { 
-				return "" + this.value;
-			}
-		}
-	}
-
 }
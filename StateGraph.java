@@ -0,0 +1,337 @@
+package siteswapsuite;
+
+import java.util.Arrays;
+
+class StateGraphException extends SiteswapException {
+	String message;
+	StateGraphException(String message) {
+		this.message = "ERROR: " + message;
+	}
+	public String getMessage() {
+		return this.message;
+	}
+}
+
+// The complete graph of (non-multiplex) juggling states for a given number of balls,
+// maximum throw height and number of hands, stored as flat arrays.
+//
+// A state is a set of occupied slots, where slot s is hand (s % numHands) at
+// step (s / numHands) from now. One hand means async, where a step is one beat;
+// two hands means sync, where a step is two beats (a throw from both hands,
+// then an empty beat), as in TwoHandedSyncNotatedSiteswap.
+//
+// States are numbered by the colexicographic rank of their slot set (i.e. its
+// combinadic), which is also the order of their bitmasks, so state numbers are
+// dense in 0 .. C(numSlots, numBalls)-1. Edges are stored in CSR form: the edges
+// out of state i are edgeStart(i) .. edgeStart(i+1)-1, and each edge records the
+// throw made from each hand to get to its target.
+public class StateGraph {
+
+	int numBalls;
+	int maxHeight;
+	int numHands;
+	int beatsPerStep;
+	int numSteps; // number of steps a ball can be in the air for
+	int numSlots;
+	int numStates;
+	int numEdges;
+	long buildNanos;
+
+	private long[][] binomials; // binomials[n][k] = n choose k, for k <= numBalls+1
+	private long[] masks; // slot set of each state
+	private int[] edgeOffsets; // edges out of state i are edgeOffsets[i] .. edgeOffsets[i+1]-1
+	private int[] edgeTargets;
+	private byte[] edgeHeights; // numHands entries per edge
+	private byte[] edgeDestHands; // numHands entries per edge
+
+	public StateGraph(int numBalls, int maxHeight, int numHands) throws StateGraphException {
+		long startTime = System.nanoTime();
+		if(numHands == 1) {
+			this.beatsPerStep = 1;
+		} else if(numHands == 2) {
+			this.beatsPerStep = 2;
+		} else {
+			throw new StateGraphException("state graphs are only supported for 1 (async) or 2 (sync) hands; got " + numHands);
+		}
+		if(numBalls < 0 || maxHeight < 0) {
+			throw new StateGraphException("number of balls and max height must be nonnegative");
+		}
+		if(maxHeight > Byte.MAX_VALUE) {
+			throw new StateGraphException("max height must be at most " + Byte.MAX_VALUE + "; got " + maxHeight);
+		}
+		this.numBalls = numBalls;
+		this.maxHeight = maxHeight;
+		this.numHands = numHands;
+		this.numSteps = maxHeight / this.beatsPerStep;
+		this.numSlots = this.numSteps * numHands;
+		if(this.numSlots > 63) {
+			throw new StateGraphException("max height " + maxHeight + " is too large for " + numHands + " hand(s)");
+		}
+		// binomial table
+		this.binomials = new long[this.numSlots + 1][numBalls + 2];
+		for(int n=0; n<=this.numSlots; n++) {
+			this.binomials[n][0] = 1;
+			for(int k=1; k<numBalls+2; k++) {
+				this.binomials[n][k] = (n == 0 ? 0 : this.binomials[n-1][k-1] + this.binomials[n-1][k]);
+			}
+		}
+		long count = this.binomials[this.numSlots][numBalls];
+		if(count > Integer.MAX_VALUE - 1) {
+			throw new StateGraphException("state graph would have " + count + " states, which is too many");
+		}
+		this.numStates = (int)count;
+		// list the slot sets in increasing order, which is rank order
+		this.masks = new long[this.numStates];
+		if(this.numStates > 0) {
+			long mask = (numBalls == 0 ? 0 : (1L << numBalls) - 1);
+			for(int i=0; i<this.numStates; i++) {
+				this.masks[i] = mask;
+				if(mask != 0) {
+					// next larger number with the same number of bits set
+					long lowest = mask & -mask;
+					long ripple = mask + lowest;
+					mask = ripple | (((mask ^ ripple) >>> 2) / lowest);
+				}
+			}
+		}
+		// build edges
+		this.edgeOffsets = new int[this.numStates + 1];
+		this.edgeTargets = new int[16];
+		this.edgeHeights = new byte[16 * numHands];
+		this.edgeDestHands = new byte[16 * numHands];
+		int[] heights = new int[numHands];
+		int[] destHands = new int[numHands];
+		long handMask = (1L << numHands) - 1;
+		for(int i=0; i<this.numStates; i++) {
+			this.edgeOffsets[i] = this.numEdges;
+			long mask = this.masks[i];
+			if(this.numSlots > 0) {
+				this.addEdges(mask & handMask, mask >>> numHands, 0, heights, destHands);
+			} else if(numBalls == 0) {
+				// no slots at all: the only pattern is all zeroes
+				this.addEdges(0, 0, 0, heights, destHands);
+			}
+		}
+		this.edgeOffsets[this.numStates] = this.numEdges;
+		// drop the slack left over from growing the edge arrays
+		this.edgeTargets = Arrays.copyOf(this.edgeTargets, this.numEdges);
+		this.edgeHeights = Arrays.copyOf(this.edgeHeights, this.numEdges * numHands);
+		this.edgeDestHands = Arrays.copyOf(this.edgeDestHands, this.numEdges * numHands);
+		this.buildNanos = System.nanoTime() - startTime;
+	}
+
+	// choose a throw for each hand from fromHand onwards, given which hands have a ball to throw
+	// and which slots are already taken, adding an edge for each complete choice
+	private void addEdges(long throwingHands, long taken, int fromHand, int[] heights, int[] destHands) {
+		if(fromHand == this.numHands) {
+			this.addEdge(this.rank(taken), heights, destHands);
+			return;
+		}
+		if((throwingHands & (1L << fromHand)) == 0) {
+			heights[fromHand] = 0;
+			destHands[fromHand] = fromHand;
+			this.addEdges(throwingHands, taken, fromHand + 1, heights, destHands);
+			return;
+		}
+		for(int s=0; s<this.numSlots; s++) {
+			if((taken & (1L << s)) == 0) {
+				heights[fromHand] = (s / this.numHands + 1) * this.beatsPerStep;
+				destHands[fromHand] = s % this.numHands;
+				this.addEdges(throwingHands, taken | (1L << s), fromHand + 1, heights, destHands);
+			}
+		}
+	}
+
+	private void addEdge(int target, int[] heights, int[] destHands) {
+		if(this.numEdges == this.edgeTargets.length) {
+			int newLength = 2 * this.edgeTargets.length;
+			int[] newTargets = new int[newLength];
+			byte[] newHeights = new byte[newLength * this.numHands];
+			byte[] newDestHands = new byte[newLength * this.numHands];
+			System.arraycopy(this.edgeTargets, 0, newTargets, 0, this.numEdges);
+			System.arraycopy(this.edgeHeights, 0, newHeights, 0, this.numEdges * this.numHands);
+			System.arraycopy(this.edgeDestHands, 0, newDestHands, 0, this.numEdges * this.numHands);
+			this.edgeTargets = newTargets;
+			this.edgeHeights = newHeights;
+			this.edgeDestHands = newDestHands;
+		}
+		this.edgeTargets[this.numEdges] = target;
+		for(int h=0; h<this.numHands; h++) {
+			this.edgeHeights[this.numEdges * this.numHands + h] = (byte)heights[h];
+			this.edgeDestHands[this.numEdges * this.numHands + h] = (byte)destHands[h];
+		}
+		this.numEdges++;
+	}
+
+	// querying basic info
+	public int numBalls() {
+		return this.numBalls;
+	}
+
+	public int maxHeight() {
+		return this.maxHeight;
+	}
+
+	public int numHands() {
+		return this.numHands;
+	}
+
+	public int beatsPerStep() {
+		return this.beatsPerStep;
+	}
+
+	public int numStates() {
+		return this.numStates;
+	}
+
+	public int numEdges() {
+		return this.numEdges;
+	}
+
+	// ranking
+
+	// number of the state with the given slot set
+	public int rank(long mask) {
+		long rank = 0;
+		int i = 0;
+		while(mask != 0) {
+			int s = Long.numberOfTrailingZeros(mask);
+			i++;
+			rank += this.binomials[s][i];
+			mask &= mask - 1;
+		}
+		return (int)rank;
+	}
+
+	// slot set of the state with the given number
+	public long mask(int state) {
+		return this.masks[state];
+	}
+
+	// number of the given state in this graph, or -1 if it isn't one of them
+	public int indexOf(State state) {
+		if(state.numHands() != this.numHands || !state.isFinite()) {
+			return -1;
+		}
+		long mask = 0;
+		for(int b=0; b<state.finiteLength(); b++) {
+			for(int h=0; h<this.numHands; h++) {
+				int charge = state.getChargeAtBeatAtHand(b, h);
+				if(charge == 0) {
+					continue;
+				}
+				if(charge != 1 || b % this.beatsPerStep != 0 || b / this.beatsPerStep >= this.numSteps) {
+					return -1;
+				}
+				mask |= 1L << ((b / this.beatsPerStep) * this.numHands + h);
+			}
+		}
+		if(Long.bitCount(mask) != this.numBalls) {
+			return -1;
+		}
+		return this.rank(mask);
+	}
+
+	public State toState(int state) {
+		State out = new State(this.numHands);
+		long mask = this.masks[state];
+		while(mask != 0) {
+			int s = Long.numberOfTrailingZeros(mask);
+			out.setChargeAtBeatAtHand((s / this.numHands) * this.beatsPerStep, s % this.numHands, 1);
+			mask &= mask - 1;
+		}
+		return out;
+	}
+
+	// querying edges
+
+	public int edgeStart(int state) {
+		return this.edgeOffsets[state];
+	}
+
+	public int outDegree(int state) {
+		return this.edgeOffsets[state + 1] - this.edgeOffsets[state];
+	}
+
+	public int edgeTarget(int edge) {
+		return this.edgeTargets[edge];
+	}
+
+	public int edgeHeight(int edge, int fromHand) {
+		return this.edgeHeights[edge * this.numHands + fromHand];
+	}
+
+	public int edgeDestHand(int edge, int fromHand) {
+		return this.edgeDestHands[edge * this.numHands + fromHand];
+	}
+
+	// append the throws of the given edge to a siteswap, as beatsPerStep new beats
+	public void appendEdge(Siteswap ss, int edge) {
+		int b = ss.period();
+		for(int i=0; i<this.beatsPerStep; i++) {
+			ss.appendEmptyBeat();
+		}
+		for(int h=0; h<this.numHands; h++) {
+			ss.addFiniteToss(b, h, this.edgeHeight(edge, h), this.edgeDestHand(edge, h));
+		}
+	}
+
+	// compare the throws of two closed walks of the given number of steps, given by their edges,
+	// starting at step r1 of the first and step r2 of the second
+	public int compareWalks(int[] walk1, int r1, int[] walk2, int r2, int length) {
+		for(int i=0; i<length; i++) {
+			int e1 = walk1[(r1 + i) % length];
+			int e2 = walk2[(r2 + i) % length];
+			for(int h=0; h<this.numHands; h++) {
+				int c = Integer.compare(this.edgeHeight(e1, h), this.edgeHeight(e2, h));
+				if(c == 0) {
+					c = Integer.compare(this.edgeDestHand(e1, h), this.edgeDestHand(e2, h));
+				}
+				if(c != 0) {
+					return c;
+				}
+			}
+		}
+		return 0;
+	}
+
+	// the step of a closed walk that its lexicographically largest rotation starts from
+	public int largestRotation(int[] walk, int length) {
+		int best = 0;
+		for(int r=1; r<length; r++) {
+			if(this.compareWalks(walk, r, walk, best, length) > 0) {
+				best = r;
+			}
+		}
+		return best;
+	}
+
+	// the throws of a closed walk of the given number of steps, starting at step from
+	public Siteswap walkSiteswap(int[] walk, int from, int length) {
+		Siteswap ss = new Siteswap(this.numHands);
+		for(int i=0; i<length; i++) {
+			this.appendEdge(ss, walk[(from + i) % length]);
+		}
+		return ss;
+	}
+
+	// approximate number of bytes taken up by the graph's arrays
+	public long memoryUsage() {
+		return 8L * this.masks.length
+			+ 4L * this.edgeOffsets.length
+			+ 4L * this.edgeTargets.length
+			+ (long)this.edgeHeights.length
+			+ (long)this.edgeDestHands.length
+			+ 8L * this.binomials.length * (this.numBalls + 2);
+	}
+
+	public String toString() {
+		String out = "state graph: " + this.numBalls + " balls, max height " + this.maxHeight + ", " + this.numHands + (this.numHands == 1 ? " hand" : " hands");
+		out += "\n states:  " + this.numStates;
+		out += "\n edges:   " + this.numEdges;
+		out += "\n memory:  " + this.memoryUsage() + " bytes";
+		out += "\n built in " + (this.buildNanos / 1000000.0) + " ms";
+		return out;
+	}
+
+}
@@ -0,0 +1,154 @@
+package siteswapsuite;
+
+import java.util.Arrays;
+
+// A State that can't be changed, written down the shortest way: the fewest beats it takes to
+// start repeating (the finite portion), then the shortest period it repeats with from there (the
+// repeated portion, with none for a state that ends in nothing but zeroes). Equal states always
+// come out the same, so they can be compared and hashed by their charges, and the hash is
+// worked out once.
+//
+// StateValue.of() gives the one instance of each distinct state still in use, so that
+// instances can be compared with ==.
+public class StateValue {
+
+	private static final Interner<StateValue> interned = new Interner<StateValue>();
+
+	final int numHands;
+	final int finiteLength;
+	final int repeatedLength;
+	final int[] charges; // numHands entries per beat, for the finite portion then the repeated portion
+	private final int hash;
+
+	// the shared instance equal to the given state
+	public static StateValue of(State state) {
+		return interned.intern(new StateValue(state));
+	}
+
+	// a new instance, not the shared one
+	StateValue(State state) {
+		this.numHands = state.numHands;
+		this.repeatedLength = shortestPeriod(state);
+		this.finiteLength = shortestFiniteLength(state, this.repeatedLength);
+		this.charges = new int[(this.finiteLength + this.repeatedLength) * this.numHands];
+		for(int b=0; b<this.finiteLength+this.repeatedLength; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				this.charges[b * this.numHands + h] = state.getChargeAtBeatAtHand(b, h);
+			}
+		}
+		this.hash = (31 * this.numHands + this.finiteLength) * 31 + Arrays.hashCode(this.charges);
+	}
+
+	// the shortest period the repeated portion repeats with, which divides its length (or 0 if it's all zeroes)
+	private static int shortestPeriod(State state) {
+		if(state.repeatedLength == 0) {
+			return 0;
+		}
+		int period = state.repeatedLength;
+		for(int d=1; d<state.repeatedLength; d++) {
+			if(state.repeatedLength % d == 0 && repeatsFrom(state, state.finiteLength, d)) {
+				period = d;
+				break;
+			}
+		}
+		if(period == 1 && beatIsEmpty(state, state.finiteLength)) {
+			return 0;
+		}
+		return period;
+	}
+
+	// the finite portion, with beats taken off the end of it while it still repeats from there
+	private static int shortestFiniteLength(State state, int period) {
+		int length = state.finiteLength;
+		if(period == 0) {
+			while(length > 0 && beatIsEmpty(state, length - 1)) {
+				length--;
+			}
+		} else {
+			while(length > 0 && beatsMatch(state, length - 1, length - 1 + period)) {
+				length--;
+			}
+		}
+		return length;
+	}
+
+	private static boolean repeatsFrom(State state, int start, int period) {
+		for(int b=start; b<start+state.repeatedLength-period; b++) {
+			if(!beatsMatch(state, b, b + period)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean beatsMatch(State state, int b1, int b2) {
+		for(int h=0; h<state.numHands; h++) {
+			if(state.getChargeAtBeatAtHand(b1, h) != state.getChargeAtBeatAtHand(b2, h)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean beatIsEmpty(State state, int b) {
+		for(int h=0; h<state.numHands; h++) {
+			if(state.getChargeAtBeatAtHand(b, h) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// querying basic info
+	public int numHands() {
+		return this.numHands;
+	}
+
+	public int finiteLength() {
+		return this.finiteLength;
+	}
+
+	public int repeatedLength() {
+		return this.repeatedLength;
+	}
+
+	public boolean isFinite() {
+		return this.repeatedLength == 0;
+	}
+
+	public int getChargeAtBeatAtHand(int b, int h) {
+		if(b >= this.finiteLength) {
+			if(this.repeatedLength == 0) {
+				return 0;
+			}
+			b = this.finiteLength + (b - this.finiteLength) % this.repeatedLength;
+		}
+		return this.charges[b * this.numHands + h];
+	}
+
+	// a State with the same charges, to change
+	public State toState() {
+		return new State(this);
+	}
+
+	public boolean equals(Object other) {
+		if(this == other) {
+			return true;
+		}
+		if(!(other instanceof StateValue)) {
+			return false;
+		}
+		StateValue that = (StateValue)other;
+		return this.hash == that.hash && this.numHands == that.numHands && this.finiteLength == that.finiteLength && this.repeatedLength == that.repeatedLength && Arrays.equals(this.charges, that.charges);
+	}
+
+	public int hashCode() {
+		return this.hash;
+	}
+
+	// same format as State.toString()
+	public String toString() {
+		return this.toState().toString();
+	}
+
+}
@@ -1,10 +1,29 @@
 package siteswapsuite;
 
+import java.math.BigInteger;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.LinkedHashSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 class ImpossibleTransitionException extends SiteswapException {
 	String message = "ERROR: cannot compute transition between non-finite states";
+	ImpossibleTransitionException() {
+	}
+	ImpossibleTransitionException(String message) {
+		this.message = "ERROR: " + message;
+	}
 	public String getMessage() {
 		return this.message;
 	}
@@ -36,9 +55,9 @@ abstract class Transition extends Siteswap {
 
 		// equalize the state lengths
 		if(fromCopy.finiteLength() < toCopy.finiteLength())
-			fromCopy.getFiniteNode(toCopy.finiteLength() - 1);
+			fromCopy.ensureFiniteLength(toCopy.finiteLength());
 		else if (fromCopy.finiteLength() > toCopy.finiteLength())
-			toCopy.getFiniteNode(fromCopy.finiteLength() - 1);
+			toCopy.ensureFiniteLength(fromCopy.finiteLength());
 
 		// determine which subclass constructor to call
 		if(allowExtraSqueezeCatches) {
@@ -72,11 +91,11 @@ abstract class Transition extends Siteswap {
 			Util.printf("s1: " + from.toString(), Util.DebugLevel.DEBUG);
 			Util.printf("s2: " + to.toString(), Util.DebugLevel.DEBUG);
 
-			State.DiffSum diffs;
 			int futureCatches = 0;
 			int futureAnticatches = 0;
 
-			diffs = from.diffSums(to); // compute difference sum
+			// difference sums between the states, kept up to date as they're changed through it
+			State.DiffCounter diffs = new State.DiffCounter(from, to);
 			Util.printf(diffs, Util.DebugLevel.DEBUG);
 
 			int ballNumDiff = (diffs.catches - diffs.antiCatches) - (diffs.tosses - diffs.antiTosses);
@@ -92,7 +111,12 @@ abstract class Transition extends Siteswap {
 
 			// find the transition!
 			while(b < minLength || diffs.tosses != 0 || diffs.antiTosses != 0 || futureCatches + ballNumDiffNegative != diffs.catches || futureAnticatches + ballNumDiffPositive != diffs.antiCatches) {
-				Util.printf(">>>>>  b: " + b, Util.DebugLevel.DEBUG);
+				if(Util.debugLevel == Util.DebugLevel.DEBUG) {
+					Util.printf(">>>>>  b: " + b, Util.DebugLevel.DEBUG);
+				}
+				// the sums as they were at the start of the beat
+				int catches = diffs.catches;
+				int antiCatches = diffs.antiCatches;
 				this.appendEmptyBeat();
 				// see if we can catch new balls/antiballs
 				for(int h=0; h<numHands; h++) {
@@ -101,22 +125,23 @@ abstract class Transition extends Siteswap {
 						if(ballNumDiffNegative < 0 && to.getChargeAtBeatAtHand(0,h) < 0) {
 							Util.printf("catching new antiball at beat " + b, Util.DebugLevel.DEBUG);
 							this.addInfiniteAntitoss(b, h, InfinityType.NEGATIVE_INFINITY);
-							from.decChargeOfNowNodeAtHand(h);
+							diffs.decFromNow(h);
 							ballNumDiffNegative++;
 						} else if(ballNumDiffPositive > 0 && to.getChargeAtBeatAtHand(0,h) > 0) {
 							Util.printf("catching new ball at beat " + b, Util.DebugLevel.DEBUG);
 							this.addInfiniteToss(b, h, InfinityType.NEGATIVE_INFINITY);
-							from.incChargeOfNowNodeAtHand(h);
+							diffs.incFromNow(h);
 							ballNumDiffPositive--;
 						}
 					}
 				}
 				// shift goal state backward by one beat, and match lengths
 				Util.printf("shifting", Util.DebugLevel.DEBUG);
-				to.shiftBackward();
-				from.getFiniteNode(to.finiteLength() - 1);
-				Util.printf("s1: " + from.toString(), Util.DebugLevel.DEBUG);
-				Util.printf("s2: " + to.toString(), Util.DebugLevel.DEBUG);
+				diffs.shiftToBackward();
+				if(Util.debugLevel == Util.DebugLevel.DEBUG) {
+					Util.printf("s1: " + from.toString(), Util.DebugLevel.DEBUG);
+					Util.printf("s2: " + to.toString(), Util.DebugLevel.DEBUG);
+				}
 
 				// make tosses to match charges in nodes between states
 				for(int h=0; h<numHands; h++) {
@@ -125,7 +150,7 @@ abstract class Transition extends Siteswap {
 						Util.printf("performing toss at beat " + b, Util.DebugLevel.DEBUG);
 						this.addInfiniteToss(b, h, InfinityType.POSITIVE_INFINITY);
 						chargeAtHand--;
-						if(ballNumDiffNegative < 0 && diffs.catches == 0)
+						if(ballNumDiffNegative < 0 && catches == 0)
 							ballNumDiffNegative++;
 						else
 							futureCatches++;
@@ -134,25 +159,29 @@ abstract class Transition extends Siteswap {
 						Util.printf("performing antitoss at beat " + b, Util.DebugLevel.DEBUG);
 						this.addInfiniteAntitoss(b, h, InfinityType.POSITIVE_INFINITY);
 						chargeAtHand++;
-						if(ballNumDiffPositive > 0 && diffs.antiCatches == 0)
+						if(ballNumDiffPositive > 0 && antiCatches == 0)
 							ballNumDiffPositive--;
 						else
 							futureAnticatches++;
 					}
 				}
 				Util.printf("advancing time", Util.DebugLevel.DEBUG);
-				from.advanceTime();
-				to.advanceTime();
+				diffs.advanceTime();
 				b++;
 
-				Util.printf("s1: " + from.toString(), Util.DebugLevel.DEBUG);
-				Util.printf("s2: " + to.toString(), Util.DebugLevel.DEBUG);
-				diffs = from.diffSums(to);
-				Util.printf(diffs, Util.DebugLevel.DEBUG);
-				Util.printf("futureCatches: " + futureCatches, Util.DebugLevel.DEBUG);
-				Util.printf("futureAnticatches: " + futureAnticatches, Util.DebugLevel.DEBUG);
-				Util.printf("ballNumDiffPositive: " + ballNumDiffPositive, Util.DebugLevel.DEBUG);
-				Util.printf("ballNumDiffNegative: " + ballNumDiffNegative, Util.DebugLevel.DEBUG);
+				if(Util.debugLevel == Util.DebugLevel.DEBUG) {
+					Util.printf("s1: " + from.toString(), Util.DebugLevel.DEBUG);
+					Util.printf("s2: " + to.toString(), Util.DebugLevel.DEBUG);
+					Util.printf(diffs, Util.DebugLevel.DEBUG);
+					// cross-check against the sums computed from scratch
+					if(!diffs.toString().equals(from.diffSums(to).toString())) {
+						Util.printf("ERROR: difference sums " + diffs.toString() + " of " + from.toString() + " and " + to.toString() + " disagree with " + from.diffSums(to).toString(), Util.DebugLevel.ERROR);
+					}
+					Util.printf("futureCatches: " + futureCatches, Util.DebugLevel.DEBUG);
+					Util.printf("futureAnticatches: " + futureAnticatches, Util.DebugLevel.DEBUG);
+					Util.printf("ballNumDiffPositive: " + ballNumDiffPositive, Util.DebugLevel.DEBUG);
+					Util.printf("ballNumDiffNegative: " + ballNumDiffNegative, Util.DebugLevel.DEBUG);
+				}
 				Util.printf(this, Util.DebugLevel.DEBUG);
 				debugCounter--;
 				if(debugCounter == 0) {
@@ -208,169 +237,996 @@ abstract class Transition extends Siteswap {
 		}
 	}
 
+	// a general transition read back from a TransitionCacheFile, along with its number of
+	// specific transitions. it starts out empty; the tosses are added after
+	static Transition stored(int numHands, int eventualPeriod, BigInteger numTransitions) {
+		return new StoredTransition(numHands, eventualPeriod, numTransitions);
+	}
+
+	private static class StoredTransition extends Transition {
+		private BigInteger numTransitions;
+		private StoredTransition(int numHands, int eventualPeriod, BigInteger numTransitions) {
+			super(numHands);
+			this.eventualPeriod = eventualPeriod;
+			this.numTransitions = numTransitions;
+		}
+		public BigInteger numTransitions() {
+			return this.numTransitions;
+		}
+	}
+
+	// the specific transitions that unInfinitize() lists, built one at a time as they're asked for
+	public Iterator<Siteswap> unInfinitizeIterator() {
+		return Spliterators.iterator(this.unInfinitizeSpliterator());
+	}
+
+	// the same, but starting from the transition at the given index (with none if it's negative)
+	public Iterator<Siteswap> unInfinitizeIterator(BigInteger startIndex) {
+		TossOptions tossOptions = new TossOptions(false);
+		TossOptions antitossOptions = new TossOptions(true);
+		BigInteger end = null;
+		if(startIndex.signum() < 0) {
+			startIndex = BigInteger.ZERO;
+			end = BigInteger.ZERO;
+		} else if(startIndex.signum() > 0) {
+			end = tossOptions.numArrangements().multiply(antitossOptions.numArrangements());
+		}
+		return Spliterators.iterator(new UnInfinitizeSpliterator(tossOptions, antitossOptions, startIndex, end));
+	}
+
+	// splits in half by index, for parallel streams. the transitions are only counted once it's
+	// split or asked for its size
+	public Spliterator<Siteswap> unInfinitizeSpliterator() {
+		return new UnInfinitizeSpliterator(new TossOptions(false), new TossOptions(true), BigInteger.ZERO, null);
+	}
+
+	public Stream<Siteswap> unInfinitizeStream() {
+		return this.unInfinitizeStream(false, true);
+	}
+
+	// if ordered, the stream keeps the order of unInfinitize() even when parallel, as long as it's
+	// consumed in order (e.g. with forEachOrdered or collect)
+	public Stream<Siteswap> unInfinitizeStream(boolean parallel, boolean ordered) {
+		Stream<Siteswap> stream = StreamSupport.stream(this.unInfinitizeSpliterator(), parallel);
+		if(!ordered) {
+			stream = stream.unordered();
+		}
+		return stream;
+	}
+
 	public List<Siteswap> unInfinitize(int maxTransitions) {
-		int numTosses = 0;
-		int numAntitosses = 0;
-		// count [anti]tosses
-		for(int tossBeat=0; tossBeat<eventualPeriod; tossBeat++) {
-			// loop through hands
-			for(int tossHand=0; tossHand<numHands; tossHand++) {
-				// loop through tosses in hand
-				for(int tossToss=0; tossToss<this.numTossesAtSite(tossBeat,tossHand); tossToss++) {
-					// see if toss at this index is a real toss
-					Toss curToss = this.getToss(tossBeat,tossHand,tossToss);
+		List<Siteswap> ret = new ArrayList<Siteswap>();
+		Iterator<Siteswap> it = this.unInfinitizeIterator();
+		while(it.hasNext() && (maxTransitions == -1 || ret.size() < maxTransitions)) {
+			ret.add(it.next());
+		}
+		Util.printf(ret, Util.DebugLevel.DEBUG);
+		return ret;
+	}
+
+	// random access into the list unInfinitize() gives. the index of a transition is
+	// (index of its toss arrangement) * (number of antitoss arrangements) + (index of its antitoss
+	// arrangement), each arrangement being numbered in lexicographic order.
+
+	// the transition at the given index, or null if there's no such index
+	public Siteswap unrank(BigInteger index) {
+		TossOptions tossOptions = new TossOptions(false);
+		TossOptions antitossOptions = new TossOptions(true);
+		BigInteger[] split = index.divideAndRemainder(antitossOptions.numArrangements());
+		if(index.signum() < 0 || split[0].compareTo(tossOptions.numArrangements()) >= 0) {
+			return null;
+		}
+		int[] tossPerm = new int[tossOptions.numTosses];
+		int[] antitossPerm = new int[antitossOptions.numTosses];
+		tossOptions.unrank(split[0], tossPerm);
+		antitossOptions.unrank(split[1], antitossPerm);
+		return this.buildTransition(tossOptions, tossPerm, antitossOptions, antitossPerm);
+	}
+
+	// the index of the given transition, or null if it isn't one of the transitions this one gives
+	public BigInteger rank(Siteswap transition) {
+		TossOptions tossOptions = new TossOptions(false);
+		TossOptions antitossOptions = new TossOptions(true);
+		int[] tossPerm = new int[tossOptions.numTosses];
+		int[] antitossPerm = new int[antitossOptions.numTosses];
+		if(transition.numHands() != this.numHands || transition.period() != this.eventualPeriod) {
+			return null;
+		}
+		// read off which group each toss took. the tosses at a site can be in any order, so they're
+		// matched up by charge rather than by where they are in the site
+		int flatTossIndex = 0;
+		int flatAntitossIndex = 0;
+		for(int b=0; b<this.eventualPeriod; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				if(transition.numTossesAtSite(b, h) != this.numTossesAtSite(b, h)) {
+					return null;
+				}
+				int tossesLeft = 0;
+				int antitossesLeft = 0;
+				for(int t=0; t<this.numTossesAtSite(b, h); t++) {
+					Toss curToss = this.getToss(b, h, t);
 					if(curToss.height().sign() > 0) {
-						if(!curToss.isAntitoss())
-							numTosses++;
-						else
-							numAntitosses++;
+						if(!curToss.isAntitoss()) {
+							tossesLeft++;
+						} else {
+							antitossesLeft++;
+						}
+					}
+				}
+				for(int t=0; t<transition.numTossesAtSite(b, h); t++) {
+					Toss taken = transition.getToss(b, h, t);
+					if(taken.height().sign() <= 0) {
+						continue;
+					}
+					int group;
+					if(!taken.isAntitoss()) {
+						group = tossOptions.groupOf(b, taken);
+						if(group == -1 || tossesLeft-- == 0) {
+							return null;
+						}
+						tossPerm[flatTossIndex++] = group;
+					} else {
+						group = antitossOptions.groupOf(b, taken);
+						if(group == -1 || antitossesLeft-- == 0) {
+							return null;
+						}
+						antitossPerm[flatAntitossIndex++] = group;
 					}
 				}
+				if(tossesLeft != 0 || antitossesLeft != 0) {
+					return null;
+				}
 			}
 		}
-		int numCatches = 0;
-		int numAnticatches = 0;
-		// count catches/anticatches
-		for(int catchBeat=eventualPeriod; catchBeat<period(); catchBeat++) {
-			// loop through hands
-			for(int catchHand=0; catchHand<this.numHands; catchHand++) {
-				// loop through tosses in hand
-				for(int catchToss=0; catchToss<this.numTossesAtSite(catchBeat,catchHand); catchToss++) {
-					Toss curCatch = this.getToss(catchBeat, catchHand, catchToss);
-					// make sure it's actually a catch, not a zero-toss
-					if(curCatch.height().sign() < 0) {
-						if(!curCatch.isAntitoss())
-							numCatches++;
-						else
-							numAnticatches++;
+		BigInteger tossRank = tossOptions.rank(tossPerm);
+		BigInteger antitossRank = antitossOptions.rank(antitossPerm);
+		if(tossRank == null || antitossRank == null) {
+			return null;
+		}
+		return tossRank.multiply(antitossOptions.numArrangements()).add(antitossRank);
+	}
+
+	// a transition chosen uniformly at random from all the ones unInfinitize() would list
+	public Siteswap randomTransition(Random random) {
+		return this.unrank(randomIndex(this.numTransitions(), random));
+	}
+
+	// n distinct transitions chosen uniformly at random, or all of them (in order) if there are no more than n
+	public List<Siteswap> randomTransitions(int n, Random random) {
+		BigInteger numTransitions = this.numTransitions();
+		if(numTransitions.compareTo(BigInteger.valueOf(n)) <= 0) {
+			return this.unInfinitize(-1);
+		}
+		Set<BigInteger> chosen = new LinkedHashSet<BigInteger>();
+		while(chosen.size() < n) {
+			chosen.add(randomIndex(numTransitions, random));
+		}
+		List<Siteswap> ret = new ArrayList<Siteswap>();
+		for(BigInteger index : chosen) {
+			ret.add(this.unrank(index));
+		}
+		return ret;
+	}
+
+	// uniformly random integer in [0, bound)
+	private static BigInteger randomIndex(BigInteger bound, Random random) {
+		BigInteger index;
+		do {
+			index = new BigInteger(bound.bitLength(), random);
+		} while(index.compareTo(bound) >= 0);
+		return index;
+	}
+
+	// the k transitions unInfinitize() would list that cost the least, cheapest first (those that cost
+	// the same in the order unInfinitize() lists them), or all of them in that order if k is -1
+	public List<Siteswap> bestTransitions(int k, TransitionCost cost) {
+		BestTransitions best = new BestTransitions(k, cost);
+		best.search(0, cost.zero());
+		Util.printf("best transitions: visited " + best.numVisited + " partial choices for " + best.numComplete + " complete ones", Util.DebugLevel.DEBUG);
+		return best.result();
+	}
+
+	// the number of specific transitions unInfinitize() would list, without listing them: for each
+	// charge, the number of distinct arrangements of the tosses' option groups
+	public BigInteger numTransitions() {
+		TossOptions tossOptions = new TossOptions(false);
+		TossOptions antitossOptions = new TossOptions(true);
+		if(tossOptions.oneTossPerSite() && antitossOptions.oneTossPerSite()) {
+			try {
+				return BigInteger.valueOf(Math.multiplyExact(multinomial(tossOptions.groupSizes), multinomial(antitossOptions.groupSizes)));
+			} catch(ArithmeticException e) {
+			}
+		}
+		return tossOptions.numArrangements().multiply(antitossOptions.numArrangements());
+	}
+
+	// (sum of sizes)! / (product of size!), throwing ArithmeticException if it doesn't fit in a long
+	static long multinomial(int[] sizes) {
+		long result = 1;
+		int n = 0;
+		for(int size : sizes) {
+			// multiply by (n+size choose size), one factor at a time so each step is exact
+			for(int i=1; i<=size; i++) {
+				n++;
+				result = Math.multiplyExact(result, n) / i;
+			}
+		}
+		return result;
+	}
+
+	static BigInteger bigMultinomial(int[] sizes) {
+		BigInteger result = BigInteger.ONE;
+		int n = 0;
+		for(int size : sizes) {
+			for(int i=1; i<=size; i++) {
+				n++;
+				result = result.multiply(BigInteger.valueOf(n)).divide(BigInteger.valueOf(i));
+			}
+		}
+		return result;
+	}
+
+	// Each positive-infinite toss in the first eventualPeriod beats gets paired with a catch (a
+	// negative-infinite toss of the same charge) after it, or stays infinite if there are more
+	// tosses than catches. Since all the infinite options are the same, as are several catches at
+	// the same site, a specific transition is a multiset permutation of option groups; and since the
+	// order of the tosses at a site doesn't make for a different transition, the tosses from one site
+	// take their groups in increasing order. These are stepped through in place, the antitoss
+	// permutation changing fastest.
+	//
+	// Covers the transitions with indices from index up to (not including) end, or to the end of
+	// the list if end is null, in which case it stops once the permutations have gone all the way
+	// round. Splitting counts the transitions if they haven't been, and hands the first half of the
+	// range to a new spliterator, which unranks its starting permutations the first time it's
+	// advanced. Only split spliterators say they're SIZED, so that one that's never split never
+	// has to count them.
+	private class UnInfinitizeSpliterator implements Spliterator<Siteswap> {
+		TossOptions tossOptions;
+		TossOptions antitossOptions;
+		BigInteger index;
+		BigInteger end;
+		boolean done; // the permutations have gone all the way round
+		boolean sized;
+		// current permutations of option groups, or null if not yet unranked from index
+		int[] tossPerm;
+		int[] antitossPerm;
+
+		UnInfinitizeSpliterator(TossOptions tossOptions, TossOptions antitossOptions, BigInteger index, BigInteger end) {
+			this.tossOptions = tossOptions;
+			this.antitossOptions = antitossOptions;
+			this.index = index;
+			this.end = end;
+		}
+
+		public boolean tryAdvance(Consumer<? super Siteswap> action) {
+			if(this.done || (this.end != null && this.index.compareTo(this.end) >= 0)) {
+				return false;
+			}
+			if(this.tossPerm == null) {
+				if(this.index.signum() == 0) {
+					this.tossPerm = this.tossOptions.firstPermutation();
+					this.antitossPerm = this.antitossOptions.firstPermutation();
+				} else {
+					this.tossPerm = new int[this.tossOptions.numTosses];
+					this.antitossPerm = new int[this.antitossOptions.numTosses];
+					BigInteger[] split = this.index.divideAndRemainder(this.antitossOptions.numArrangements());
+					this.tossOptions.unrank(split[0], this.tossPerm);
+					this.antitossOptions.unrank(split[1], this.antitossPerm);
+				}
+			}
+			action.accept(buildTransition(this.tossOptions, this.tossPerm, this.antitossOptions, this.antitossPerm));
+			// step to the next pair of permutations
+			if(!this.antitossOptions.nextArrangement(this.antitossPerm) && !this.tossOptions.nextArrangement(this.tossPerm)) {
+				this.done = true;
+			}
+			this.index = this.index.add(BigInteger.ONE);
+			return true;
+		}
+
+		private BigInteger end() {
+			if(this.end == null) {
+				this.end = this.tossOptions.numArrangements().multiply(this.antitossOptions.numArrangements());
+			}
+			return this.end;
+		}
+
+		public Spliterator<Siteswap> trySplit() {
+			if(this.done) {
+				return null;
+			}
+			BigInteger size = this.end().subtract(this.index);
+			if(size.compareTo(BigInteger.valueOf(2)) < 0) {
+				return null;
+			}
+			BigInteger mid = this.index.add(size.shiftRight(1));
+			// the prefix carries on from where this one is, and this one starts over from mid
+			UnInfinitizeSpliterator prefix = new UnInfinitizeSpliterator(this.tossOptions, this.antitossOptions, this.index, mid);
+			prefix.tossPerm = this.tossPerm;
+			prefix.antitossPerm = this.antitossPerm;
+			prefix.sized = true;
+			this.sized = true;
+			this.index = mid;
+			this.tossPerm = null;
+			this.antitossPerm = null;
+			return prefix;
+		}
+
+		public long estimateSize() {
+			if(this.done) {
+				return 0;
+			}
+			BigInteger size = this.end().subtract(this.index).max(BigInteger.ZERO);
+			if(size.bitLength() < 64) {
+				return size.longValue();
+			}
+			return Long.MAX_VALUE;
+		}
+
+		public int characteristics() {
+			int characteristics = Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+			// sizes are only exact while they fit in a long
+			if(this.sized && this.end.bitLength() < 64) {
+				characteristics |= Spliterator.SIZED | Spliterator.SUBSIZED;
+			}
+			return characteristics;
+		}
+	}
+
+	// Branch and bound over the option group each toss takes, one toss at a time (tosses, then
+	// antitosses, in the order their permutations list them), keeping the k cheapest complete
+	// choices found so far in a heap with the most expensive on top. The cost of each throw only
+	// depends on the group it takes, so a partial choice can't end up any cheaper than its cost so
+	// far combined with the cheapest group still left for each toss after it; once that's no better
+	// than the top of a full heap, nothing under it is looked at. Groups are tried in order (for a
+	// toss from the same site as the one before it, from the group that one took), so complete
+	// choices come up in the order unInfinitize() lists them, and of those that cost the same the
+	// first ones are kept.
+	private class BestTransitions {
+		int k;
+		TransitionCost cost;
+		TossOptions[] options; // for tosses, then antitosses
+		int[][] perms; // the choice being built, for each charge
+		int[][] groupsLeft; // number of tosses of each charge still to take each group
+		int[] positionCharges; // charge (0 for tosses, 1 for antitosses) of each toss in turn
+		int[] positionIndices; // its index in the permutation of its charge
+		int[][] groupCosts; // cost of each toss taking each group of its charge
+		int[][] extraCosts; // scratch space for lowerBound, one entry per group of each charge
+		PriorityQueue<Choice> heap = new PriorityQueue<Choice>();
+		long numVisited;
+		long numComplete;
+
+		// a complete choice, ordered most expensive (then latest) first
+		private class Choice implements Comparable<Choice> {
+			int cost;
+			long order;
+			int[] tossPerm;
+			int[] antitossPerm;
+			Choice(int cost, long order, int[] tossPerm, int[] antitossPerm) {
+				this.cost = cost;
+				this.order = order;
+				this.tossPerm = tossPerm;
+				this.antitossPerm = antitossPerm;
+			}
+			public int compareTo(Choice other) {
+				if(this.cost != other.cost) {
+					return Integer.compare(other.cost, this.cost);
+				}
+				return Long.compare(other.order, this.order);
+			}
+		}
+
+		BestTransitions(int k, TransitionCost cost) {
+			this.k = k;
+			this.cost = cost;
+			this.options = new TossOptions[] { new TossOptions(false), new TossOptions(true) };
+			this.perms = new int[2][];
+			this.groupsLeft = new int[2][];
+			this.extraCosts = new int[2][];
+			for(int c=0; c<2; c++) {
+				this.perms[c] = new int[this.options[c].numTosses];
+				this.groupsLeft[c] = this.options[c].groupSizes.clone();
+				this.extraCosts[c] = new int[this.options[c].numGroups()];
+			}
+			int numPositions = this.perms[0].length + this.perms[1].length;
+			this.positionCharges = new int[numPositions];
+			this.positionIndices = new int[numPositions];
+			this.groupCosts = new int[numPositions][];
+			int[] numSeen = new int[2];
+			for(int b=0; b<eventualPeriod; b++) {
+				for(int h=0; h<numHands; h++) {
+					for(int t=0; t<numTossesAtSite(b, h); t++) {
+						Toss curToss = getToss(b, h, t);
+						if(curToss.height().sign() <= 0) {
+							continue;
+						}
+						int c = (curToss.isAntitoss() ? 1 : 0);
+						int p = (c == 0 ? 0 : this.perms[0].length) + numSeen[c];
+						this.positionCharges[p] = c;
+						this.positionIndices[p] = numSeen[c]++;
+						TossOptions opts = this.options[c];
+						this.groupCosts[p] = new int[opts.numGroups()];
+						for(int g=0; g<opts.numGroups(); g++) {
+							if(opts.hasInfiniteGroup && g == 0) {
+								this.groupCosts[p][g] = cost.zero();
+							} else {
+								this.groupCosts[p][g] = cost.tossCost(opts.groupBeats[g] - b, h, opts.groupHands[g], numHands);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		void search(int p, int costSoFar) {
+			this.numVisited++;
+			if(this.k == 0) {
+				return;
+			}
+			if(p == this.positionCharges.length) {
+				this.offer(costSoFar);
+				return;
+			}
+			if(this.k != -1 && this.heap.size() == this.k && this.lowerBound(p, costSoFar) >= this.heap.peek().cost) {
+				return;
+			}
+			int c = this.positionCharges[p];
+			int[] left = this.groupsLeft[c];
+			for(int g=this.options[c].lowestGroup(this.perms[c], this.positionIndices[p]); g<left.length; g++) {
+				if(left[g] == 0) {
+					continue;
+				}
+				left[g]--;
+				this.perms[c][this.positionIndices[p]] = g;
+				this.search(p + 1, this.cost.combine(costSoFar, this.groupCosts[p][g]));
+				left[g]++;
+			}
+		}
+
+		// the least a choice could cost, given its cost so far and the groups left for the tosses from p on.
+		// for costs that add up, each toss is charged its cheapest group, and then each group the least
+		// extra any toss left would pay to take it instead (the first step of the Hungarian algorithm),
+		// which is exact when a throw's cost is a part from its toss plus a part from its group, as
+		// with sums of heights. for the max, each toss just takes its cheapest group.
+		private int lowerBound(int p, int costSoFar) {
+			int bound = costSoFar;
+			for(int c=0; c<2; c++) {
+				int[] left = this.groupsLeft[c];
+				int[] extra = this.extraCosts[c];
+				Arrays.fill(extra, Integer.MAX_VALUE);
+				for(int q=p; q<this.positionCharges.length; q++) {
+					if(this.positionCharges[q] != c) {
+						continue;
+					}
+					int cheapest = Integer.MAX_VALUE;
+					for(int g=0; g<left.length; g++) {
+						if(left[g] > 0 && this.groupCosts[q][g] < cheapest) {
+							cheapest = this.groupCosts[q][g];
+						}
+					}
+					bound = this.cost.combine(bound, cheapest);
+					if(this.cost.addsUp()) {
+						for(int g=0; g<left.length; g++) {
+							if(left[g] > 0) {
+								extra[g] = Math.min(extra[g], this.groupCosts[q][g] - cheapest);
+							}
+						}
+					}
+				}
+				if(this.cost.addsUp()) {
+					for(int g=0; g<left.length; g++) {
+						if(left[g] > 0) {
+							bound += left[g] * extra[g];
+						}
 					}
 				}
 			}
+			return bound;
+		}
+
+		private void offer(int cost) {
+			long order = this.numComplete++;
+			if(this.k != -1 && this.heap.size() == this.k) {
+				if(cost >= this.heap.peek().cost) {
+					return;
+				}
+				this.heap.poll();
+			}
+			this.heap.add(new Choice(cost, order, this.perms[0].clone(), this.perms[1].clone()));
 		}
-		int extraTosses = numTosses - numCatches;
-		int extraAntitosses = numAntitosses - numAnticatches;
-		Util.printf("     numTosses: " + numTosses, Util.DebugLevel.DEBUG);
-		Util.printf("    numCatches: " + numCatches, Util.DebugLevel.DEBUG);
-		Util.printf(" numAntitosses: " + numAntitosses, Util.DebugLevel.DEBUG);
-		Util.printf("numAnticatches: " + numAnticatches, Util.DebugLevel.DEBUG);
-		Util.printf(">     extraTosses: " + extraTosses, Util.DebugLevel.DEBUG);
-		Util.printf("> extraAntitosses: " + extraAntitosses, Util.DebugLevel.DEBUG);
-		// get list of all options for tosses, and null where non-tosses are
-		List<List<Toss>> tossOptionsList = new ArrayList<List<Toss>>();
-		for(int tossBeat=0; tossBeat<eventualPeriod; tossBeat++) {
-			// loop through hands
-			for(int tossHand=0; tossHand<numHands; tossHand++) {
-				// loop through tosses in hand
-				for(int tossToss=0; tossToss<this.numTossesAtSite(tossBeat,tossHand); tossToss++) {
-					// see if toss at this index is a real toss
-					Toss curToss = this.getToss(tossBeat,tossHand,tossToss);
+
+		// the transitions kept, cheapest first
+		List<Siteswap> result() {
+			Siteswap[] ret = new Siteswap[this.heap.size()];
+			for(int i=ret.length-1; i>=0; i--) {
+				Choice choice = this.heap.poll();
+				ret[i] = buildTransition(this.options[0], choice.tossPerm, this.options[1], choice.antitossPerm);
+			}
+			return new ArrayList<Siteswap>(Arrays.asList(ret));
+		}
+	}
+
+	// the specific transition where the tosses of each charge take the given option groups
+	private Siteswap buildTransition(TossOptions tossOptions, int[] tossPerm, TossOptions antitossOptions, int[] antitossPerm) {
+		Siteswap curSS = new Siteswap(numHands);
+		int flatTossIndex = 0;
+		int flatAntitossIndex = 0;
+		for(int b=0; b<eventualPeriod; b++) {
+			curSS.appendEmptyBeat();
+			for(int h=0; h<numHands; h++) {
+				for(int t=0; t<numTossesAtSite(b, h); t++) {
+					Toss curToss = getToss(b, h, t);
 					if(curToss.height().sign() <= 0) {
-						tossOptionsList.add(null);
+						curSS.addToss(b, h, curToss);
+					} else if(!curToss.isAntitoss()) {
+						curSS.addToss(b, h, tossOptions.toss(b, tossPerm[flatTossIndex]));
+						flatTossIndex++;
 					} else {
-						// add the appropriate number of infinite-height tosses of appropriate charge
-						ArrayList<Toss> tossOptions = new ArrayList<Toss>();
-						if(!curToss.isAntitoss()) {
-							for(int i=0; i<extraTosses; i++) {
-								tossOptions.add(new Toss(InfinityType.POSITIVE_INFINITY, false));
-							}
-						} else {
-							for(int i=0; i<extraAntitosses; i++) {
-								tossOptions.add(new Toss(InfinityType.POSITIVE_INFINITY, true));
+						curSS.addToss(b, h, antitossOptions.toss(b, antitossPerm[flatAntitossIndex]));
+						flatAntitossIndex++;
+					}
+				}
+			}
+		}
+		return curSS;
+	}
+
+	// The options open to the tosses of one charge: staying infinite, or being caught at one of the
+	// catch sites of that charge. Identical options form one group; the infinite group comes first,
+	// then one group per catch site, in order of beat then hand.
+	//
+	// Tosses from the same site take their groups in increasing order, so that each multiset of
+	// groups for a site is only counted once. With no site throwing more than one toss, every
+	// arrangement is allowed and the counting is the multinomial; otherwise arrangements are
+	// counted a site with more than one toss at a time, by numFromSite(), remembering what it's
+	// worked out.
+	private class TossOptions {
+		boolean isAntitoss;
+		int numTosses;
+		int numCatches;
+		boolean hasInfiniteGroup;
+		int[] groupBeats; // catch site of each group (unused for the infinite group)
+		int[] groupHands;
+		int[] groupSizes; // number of tosses taking each group, in every specific transition
+		boolean[] sameSite; // whether each toss is from the same site as the one before it
+		int lastSameSite = -1; // the last toss that's from the same site as the one before it, if any
+		int[] multiSiteStarts; // the first toss from each site with more than one toss, in order
+		int[] multiSiteSizes; // and the number of tosses from it
+		int maxGroupSize;
+		Map<String,BigInteger> completions = new ConcurrentHashMap<String,BigInteger>(); // shared by the parts of a split spliterator
+
+		TossOptions(boolean isAntitoss) {
+			this.isAntitoss = isAntitoss;
+			// count tosses of this charge, and note which are from the same site as the one before
+			List<Boolean> sameSite = new ArrayList<Boolean>();
+			for(int tossBeat=0; tossBeat<eventualPeriod; tossBeat++) {
+				for(int tossHand=0; tossHand<numHands; tossHand++) {
+					boolean startedSite = false;
+					for(int tossToss=0; tossToss<numTossesAtSite(tossBeat,tossHand); tossToss++) {
+						// see if toss at this index is a real toss
+						Toss curToss = getToss(tossBeat,tossHand,tossToss);
+						if(curToss.height().sign() > 0 && curToss.isAntitoss() == isAntitoss) {
+							if(startedSite) {
+								this.lastSameSite = this.numTosses;
 							}
+							sameSite.add(startedSite);
+							startedSite = true;
+							this.numTosses++;
+						}
+					}
+				}
+			}
+			this.sameSite = new boolean[this.numTosses];
+			for(int i=0; i<this.numTosses; i++) {
+				this.sameSite[i] = sameSite.get(i);
+			}
+			// count catches of this charge
+			for(int catchBeat=eventualPeriod; catchBeat<period(); catchBeat++) {
+				for(int catchHand=0; catchHand<numHands; catchHand++) {
+					for(int catchToss=0; catchToss<numTossesAtSite(catchBeat,catchHand); catchToss++) {
+						Toss curCatch = getToss(catchBeat, catchHand, catchToss);
+						// make sure it's actually a catch, not a zero-toss
+						if(curCatch.height().sign() < 0 && curCatch.isAntitoss() == isAntitoss) {
+							this.numCatches++;
 						}
-						// loop through catches to get all other possible tosses
-						for(int catchBeat=eventualPeriod; catchBeat<period(); catchBeat++) {
-							// loop through hands
-							for(int catchHand=0; catchHand<this.numHands; catchHand++) {
-								// loop through tosses in hand
-								for(int catchToss=0; catchToss<this.numTossesAtSite(catchBeat,catchHand); catchToss++) {
-									Toss curCatch = this.getToss(catchBeat, catchHand, catchToss);
-									// make sure it's a catch of matching charge
-									if(curCatch.height().sign() < 0 && curCatch.isAntitoss() == curToss.isAntitoss()) {
-										int height = catchBeat - tossBeat;
-										tossOptions.add(new Toss(height, catchHand, curToss.isAntitoss()));
-									}
-								}
+					}
+				}
+			}
+			int extra = this.numTosses - this.numCatches;
+			Util.printf((isAntitoss ? " numAntitosses: " : "     numTosses: ") + this.numTosses, Util.DebugLevel.DEBUG);
+			Util.printf((isAntitoss ? "numAnticatches: " : "    numCatches: ") + this.numCatches, Util.DebugLevel.DEBUG);
+			// group the options. if there are more catches than tosses, only the first numTosses catches are options.
+			int numOptions = 0;
+			int numGroups = 0;
+			this.groupBeats = new int[this.numTosses];
+			this.groupHands = new int[this.numTosses];
+			this.groupSizes = new int[this.numTosses];
+			if(extra > 0) {
+				this.hasInfiniteGroup = true;
+				this.groupSizes[0] = extra;
+				numOptions = extra;
+				numGroups = 1;
+			}
+			for(int catchBeat=eventualPeriod; catchBeat<period() && numOptions<this.numTosses; catchBeat++) {
+				for(int catchHand=0; catchHand<numHands && numOptions<this.numTosses; catchHand++) {
+					boolean startedGroup = false;
+					for(int catchToss=0; catchToss<numTossesAtSite(catchBeat,catchHand) && numOptions<this.numTosses; catchToss++) {
+						Toss curCatch = getToss(catchBeat, catchHand, catchToss);
+						if(curCatch.height().sign() < 0 && curCatch.isAntitoss() == isAntitoss) {
+							if(!startedGroup) {
+								this.groupBeats[numGroups] = catchBeat;
+								this.groupHands[numGroups] = catchHand;
+								numGroups++;
+								startedGroup = true;
 							}
+							this.groupSizes[numGroups-1]++;
+							numOptions++;
 						}
-						tossOptionsList.add(tossOptions);
 					}
 				}
 			}
+			this.groupBeats = Arrays.copyOf(this.groupBeats, numGroups);
+			this.groupHands = Arrays.copyOf(this.groupHands, numGroups);
+			this.groupSizes = Arrays.copyOf(this.groupSizes, numGroups);
+			for(int size : this.groupSizes) {
+				this.maxGroupSize = Math.max(this.maxGroupSize, size);
+			}
+			// find the sites with more than one toss
+			List<Integer> multiSiteStarts = new ArrayList<Integer>();
+			List<Integer> multiSiteSizes = new ArrayList<Integer>();
+			for(int i=1; i<this.numTosses; i++) {
+				if(this.sameSite[i]) {
+					if(!this.sameSite[i-1]) {
+						multiSiteStarts.add(i - 1);
+						multiSiteSizes.add(1);
+					}
+					multiSiteSizes.set(multiSiteSizes.size() - 1, multiSiteSizes.get(multiSiteSizes.size() - 1) + 1);
+				}
+			}
+			this.multiSiteStarts = new int[multiSiteStarts.size()];
+			this.multiSiteSizes = new int[multiSiteSizes.size()];
+			for(int m=0; m<this.multiSiteStarts.length; m++) {
+				this.multiSiteStarts[m] = multiSiteStarts.get(m);
+				this.multiSiteSizes[m] = multiSiteSizes.get(m);
+			}
 		}
-		Util.printf("tossOptionsList", Util.DebugLevel.DEBUG);
-		Util.printf(tossOptionsList, Util.DebugLevel.DEBUG);
-		Util.printf("toss perms: " + (numCatches + extraTosses), Util.DebugLevel.DEBUG);
-		Util.printf("antiToss perms: " + (numAnticatches + extraAntitosses), Util.DebugLevel.DEBUG);
-		List<List<Integer>> tossPerms = findAllPermutations(numCatches + extraTosses);
-		List<List<Integer>> antiTossPerms = findAllPermutations(numAnticatches + extraAntitosses);
-		// combine into final list of transitions! (to be processed by a different class shortly...)
-		List<Siteswap> ret = new ArrayList<Siteswap>();
-		for(int t1=0; t1<tossPerms.size(); t1++) {
-			for(int t2=0; t2<antiTossPerms.size(); t2++) {
-				int totalFlatAnyTossIndex = 0;
-				List<Integer> curTossPerm = tossPerms.get(t1);
-				int flatTossIndex = 0;
-				List<Integer> curAntitossPerm = antiTossPerms.get(t2);
-				int flatAntitossIndex = 0;
-				Siteswap curSS = new Siteswap(numHands);
-				if(maxTransitions != -1 && maxTransitions <= 0)
-					return ret;
-				for(int b=0; b<eventualPeriod; b++) {
-					curSS.appendEmptyBeat();
-					for(int h=0; h<numHands; h++) {
-						for(int t=0; t<numTossesAtSite(b, h); t++) {
-							Toss curToss = this.getToss(b, h, t);
-							if(tossOptionsList.get(totalFlatAnyTossIndex) == null) {
-								curSS.addToss(b, h, curToss);
-							} else {
-								if(!curToss.isAntitoss()) {
-									curSS.addToss(b, h, tossOptionsList.get(totalFlatAnyTossIndex).get(curTossPerm.get(flatTossIndex)));
-									flatTossIndex++;
-								} else {
-									curSS.addToss(b, h, tossOptionsList.get(totalFlatAnyTossIndex).get(curAntitossPerm.get(flatAntitossIndex)));
-									flatAntitossIndex++;
-								}
-							}
-							totalFlatAnyTossIndex++;
+
+		int numGroups() {
+			return this.groupSizes.length;
+		}
+
+		boolean oneTossPerSite() {
+			return this.lastSameSite == -1;
+		}
+
+		// the lowest group the toss at position i can take, given the groups taken before it
+		int lowestGroup(int[] perm, int i) {
+			return (this.sameSite[i] ? perm[i-1] : 0);
+		}
+
+		// the lexicographically first permutation of groups: each group's number, as many times as its size
+		int[] firstPermutation() {
+			int[] perm = new int[this.numTosses];
+			int i = 0;
+			for(int g=0; g<this.groupSizes.length; g++) {
+				for(int k=0; k<this.groupSizes[g]; k++) {
+					perm[i++] = g;
+				}
+			}
+			return perm;
+		}
+
+		BigInteger numArrangements() {
+			if(this.oneTossPerSite()) {
+				return bigMultinomial(this.groupSizes);
+			}
+			return this.numFromSite(0, this.histogram(this.groupSizes, 0));
+		}
+
+		// the number of ways to fill in the positions from i on, with counts[g] tosses left to take
+		// group g, when the toss at i can't take a group lower than lowest: each way of finishing the
+		// site of the toss at i, times the number of ways to fill in the sites after it
+		BigInteger numCompletions(int i, int lowest, int[] counts) {
+			if(i > this.lastSameSite) {
+				return bigMultinomial(counts);
+			}
+			int siteEnd = i + 1;
+			while(siteEnd < this.numTosses && this.sameSite[siteEnd]) {
+				siteEnd++;
+			}
+			int[] from = this.histogram(counts, lowest);
+			int[] to = new int[from.length];
+			for(int g=0; g<lowest; g++) {
+				to[counts[g]]++;
+			}
+			int multiSite = 0;
+			while(multiSite < this.multiSiteStarts.length && this.multiSiteStarts[multiSite] < siteEnd) {
+				multiSite++;
+			}
+			return this.spread(from, from.length - 1, siteEnd - i, to, multiSite);
+		}
+
+		// hist[k] is the number of groups, from group lowest on, with k tosses left to take them
+		private int[] histogram(int[] counts, int lowest) {
+			int[] hist = new int[this.maxGroupSize + 1];
+			for(int g=lowest; g<counts.length; g++) {
+				hist[counts[g]]++;
+			}
+			return hist;
+		}
+
+		// The number of ways to fill in the sites with more than one toss from the given one on, then
+		// the sites with one toss, when hist[k] groups have k tosses left to take them. That doesn't
+		// depend on which groups have how many left, or on the order the sites come in, so the groups
+		// are only counted by how many they have left, and the sites with one toss are left to the
+		// end, where any arrangement of what's left will do: the multinomial.
+		private BigInteger numFromSite(int multiSite, int[] hist) {
+			if(multiSite == this.multiSiteStarts.length) {
+				BigInteger ret = BigInteger.ONE;
+				int n = 0;
+				for(int k=1; k<hist.length; k++) {
+					for(int j=0; j<hist[k]; j++) {
+						for(int i=1; i<=k; i++) {
+							n++;
+							ret = ret.multiply(BigInteger.valueOf(n)).divide(BigInteger.valueOf(i));
+						}
+					}
+				}
+				return ret;
+			}
+			String key = multiSite + ":" + Arrays.toString(hist);
+			BigInteger ret = this.completions.get(key);
+			if(ret != null) {
+				return ret;
+			}
+			ret = this.spread(hist, hist.length - 1, this.multiSiteSizes[multiSite], new int[hist.length], multiSite + 1);
+			this.completions.put(key, ret);
+			return ret;
+		}
+
+		// the sum, over the ways the given number of tosses can take groups counted by from[] (those with
+		// k left down to 1, in turn), of numFromSite() of the groups left, counted into to[]. a site
+		// taking t tosses' worth from j of the from[k] groups with k left, and none from the rest,
+		// does so in (from[k] choose j) ways, and leaves those groups with k-t.
+		private BigInteger spread(int[] from, int k, int tosses, int[] to, int nextMultiSite) {
+			if(k == 0) {
+				if(tosses > 0) {
+					return BigInteger.ZERO;
+				}
+				int[] left = to.clone();
+				left[0] = 0; // groups with none left don't count
+				return this.numFromSite(nextMultiSite, left);
+			}
+			if(from[k] == 0) {
+				return this.spread(from, k - 1, tosses, to, nextMultiSite);
+			}
+			return this.spreadClass(from, k, Math.min(k, tosses), from[k], tosses, to, nextMultiSite);
+		}
+
+		// the same, taking t each from some of the groups with k left (groupsLeft of them not yet decided on)
+		private BigInteger spreadClass(int[] from, int k, int t, int groupsLeft, int tosses, int[] to, int nextMultiSite) {
+			if(t == 0) {
+				to[k] += groupsLeft;
+				BigInteger ret = this.spread(from, k - 1, tosses, to, nextMultiSite);
+				to[k] -= groupsLeft;
+				return ret;
+			}
+			BigInteger ret = BigInteger.ZERO;
+			BigInteger ways = BigInteger.ONE;
+			for(int j=0; j<=groupsLeft && j*t<=tosses; j++) {
+				if(j > 0) {
+					ways = ways.multiply(BigInteger.valueOf(groupsLeft - j + 1)).divide(BigInteger.valueOf(j));
+				}
+				to[k-t] += j;
+				ret = ret.add(ways.multiply(this.spreadClass(from, k, t - 1, groupsLeft - j, tosses - j*t, to, nextMultiSite)));
+				to[k-t] -= j;
+			}
+			return ret;
+		}
+
+		// the lowest group the toss after position i can take, when the one at i takes group g
+		private int lowestAfter(int i, int g) {
+			return (i + 1 < this.numTosses && this.sameSite[i+1] ? g : 0);
+		}
+
+		// fill perm with the arrangement of groups at the given index in lexicographic order.
+		// at each position, the arrangements starting with group g number
+		// (arrangements of what's left) * (count of g left) / (number of positions left),
+		// or, if some site throws more than one toss, numCompletions() of what's left.
+		void unrank(BigInteger index, int[] perm) {
+			if(!this.oneTossPerSite()) {
+				int[] counts = this.groupSizes.clone();
+				for(int i=0; i<perm.length; i++) {
+					for(int g=this.lowestGroup(perm, i); g<counts.length; g++) {
+						if(counts[g] == 0) {
+							continue;
+						}
+						counts[g]--;
+						BigInteger startingWithG = this.numCompletions(i + 1, this.lowestAfter(i, g), counts);
+						if(index.compareTo(startingWithG) < 0) {
+							perm[i] = g;
+							break;
 						}
+						counts[g]++;
+						index = index.subtract(startingWithG);
+					}
+				}
+				return;
+			}
+			int[] counts = this.groupSizes.clone();
+			BigInteger arrangementsLeft = this.numArrangements();
+			for(int i=0; i<perm.length; i++) {
+				BigInteger positionsLeft = BigInteger.valueOf(perm.length - i);
+				for(int g=0; g<counts.length; g++) {
+					if(counts[g] == 0) {
+						continue;
+					}
+					BigInteger startingWithG = arrangementsLeft.multiply(BigInteger.valueOf(counts[g])).divide(positionsLeft);
+					if(index.compareTo(startingWithG) < 0) {
+						perm[i] = g;
+						counts[g]--;
+						arrangementsLeft = startingWithG;
+						break;
 					}
+					index = index.subtract(startingWithG);
+				}
+			}
+		}
 
+		// index of the given arrangement of groups in lexicographic order, or null if it uses the wrong groups.
+		// the groups taken by the tosses from one site can be in any order.
+		BigInteger rank(int[] perm) {
+			if(!this.oneTossPerSite()) {
+				perm = perm.clone();
+				for(int start=0; start<perm.length; ) {
+					int end = start + 1;
+					while(end < perm.length && this.sameSite[end]) {
+						end++;
+					}
+					Arrays.sort(perm, start, end);
+					start = end;
+				}
+				int[] counts = this.groupSizes.clone();
+				BigInteger index = BigInteger.ZERO;
+				for(int i=0; i<perm.length; i++) {
+					if(counts[perm[i]] == 0) {
+						return null;
+					}
+					for(int g=this.lowestGroup(perm, i); g<perm[i]; g++) {
+						if(counts[g] > 0) {
+							counts[g]--;
+							index = index.add(this.numCompletions(i + 1, this.lowestAfter(i, g), counts));
+							counts[g]++;
+						}
+					}
+					counts[perm[i]]--;
+				}
+				return index;
+			}
+			int[] counts = this.groupSizes.clone();
+			BigInteger arrangementsLeft = this.numArrangements();
+			BigInteger index = BigInteger.ZERO;
+			for(int i=0; i<perm.length; i++) {
+				BigInteger positionsLeft = BigInteger.valueOf(perm.length - i);
+				for(int g=0; g<perm[i]; g++) {
+					if(counts[g] > 0) {
+						index = index.add(arrangementsLeft.multiply(BigInteger.valueOf(counts[g])).divide(positionsLeft));
+					}
+				}
+				if(counts[perm[i]] == 0) {
+					return null;
+				}
+				arrangementsLeft = arrangementsLeft.multiply(BigInteger.valueOf(counts[perm[i]])).divide(positionsLeft);
+				counts[perm[i]]--;
+			}
+			return index;
+		}
+
+		// rearrange perm into the next arrangement in lexicographic order, as nextPermutation() does.
+		// if some site throws more than one toss, the last position that can take a higher group
+		// left for it takes the next one up, and the positions after it take the lowest they can.
+		boolean nextArrangement(int[] perm) {
+			if(this.oneTossPerSite()) {
+				return nextPermutation(perm);
+			}
+			int[] left = new int[this.numGroups()];
+			for(int i=perm.length-1; i>=0; i--) {
+				left[perm[i]]++;
+				for(int g=perm[i]+1; g<left.length; g++) {
+					if(this.canTake(i, g, left)) {
+						perm[i] = g;
+						left[g]--;
+						this.fillFrom(i + 1, perm, left);
+						return true;
+					}
+				}
+			}
+			this.fillFrom(0, perm, left);
+			return false;
+		}
+
+		// fill perm from position i on with the first arrangement of the groups left
+		private void fillFrom(int i, int[] perm, int[] left) {
+			for(int j=i; j<perm.length; j++) {
+				for(int g=this.lowestGroup(perm, j); g<left.length; g++) {
+					if(this.canTake(j, g, left)) {
+						perm[j] = g;
+						left[g]--;
+						break;
+					}
 				}
-				ret.add(curSS);
-				if(maxTransitions != -1)
-					maxTransitions--;
 			}
 		}
-		Util.printf(ret, Util.DebugLevel.DEBUG);
-		return ret;
-	}
 
-	static List<List<Integer>> findAllPermutations(int numTosses) {
-		ArrayList<Integer> list = new ArrayList<Integer>();
-		for(int i=0; i<numTosses; i++) {
-			list.add(i);
+		// whether the toss at position i can take group g out of the groups left, leaving enough
+		// groups no lower than g for the rest of the tosses from its site
+		private boolean canTake(int i, int g, int[] left) {
+			if(left[g] == 0) {
+				return false;
+			}
+			int needed = 1;
+			for(int j=i+1; j<this.numTosses && this.sameSite[j]; j++) {
+				needed++;
+			}
+			for(int h=g; h<left.length; h++) {
+				needed -= left[h];
+			}
+			return needed <= 0;
+		}
+
+		// the group whose toss from the given beat is the given toss, or -1 if there isn't one
+		int groupOf(int tossBeat, Toss toss) {
+			if(toss.charge() != (this.isAntitoss ? -1 : 1)) {
+				return -1;
+			}
+			if(toss.height().isInfinite()) {
+				if(this.hasInfiniteGroup && toss.height().infiniteValue() == InfinityType.POSITIVE_INFINITY) {
+					return 0;
+				}
+				return -1;
+			}
+			for(int g=(this.hasInfiniteGroup ? 1 : 0); g<this.groupSizes.length; g++) {
+				if(this.groupBeats[g] - tossBeat == toss.height().finiteValue() && this.groupHands[g] == toss.destHand()) {
+					return g;
+				}
+			}
+			return -1;
+		}
+
+		// the toss made from the given beat when it takes the given group
+		Toss toss(int tossBeat, int group) {
+			if(this.hasInfiniteGroup && group == 0) {
+				return new Toss(InfinityType.POSITIVE_INFINITY, this.isAntitoss);
+			}
+			return new Toss(this.groupBeats[group] - tossBeat, this.groupHands[group], this.isAntitoss);
 		}
-		return findAllPermutationsHelper(list);
 	}
 
-	static List<List<Integer>> findAllPermutationsHelper(List<Integer> list) {
-		if(list.size() == 0) { 
-			List<List<Integer>> result = new ArrayList<List<Integer>>();
-			result.add(new ArrayList<Integer>());
-			return result;
+	// rearrange a into the next permutation in lexicographic order, in place, skipping any that are
+	// the same as one already seen when a has repeated elements. if a is already the last one, reset
+	// it to the first (sorted) one and return false.
+	static boolean nextPermutation(int[] a) {
+		int i = a.length - 2;
+		while(i >= 0 && a[i] >= a[i+1]) {
+			i--;
 		}
-		Integer firstElement = list.remove(0);
-		List<List<Integer>> returnValue = new ArrayList<List<Integer>>();
-		List<List<Integer>> permutations = findAllPermutationsHelper(list);
-		for(List<Integer> smallerPermutated : permutations) {
-			for(int index=0; index <= smallerPermutated.size(); index++) {
-				List<Integer> temp = new ArrayList<Integer>(smallerPermutated);
-				temp.add(index, firstElement);
-				returnValue.add(temp);
+		if(i >= 0) {
+			int j = a.length - 1;
+			while(a[j] <= a[i]) {
+				j--;
 			}
+			swap(a, i, j);
+		}
+		// reverse the tail
+		for(int lo=i+1, hi=a.length-1; lo<hi; lo++, hi--) {
+			swap(a, lo, hi);
 		}
-		return returnValue;
+		return i >= 0;
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		int temp = a[i];
+		a[i] = a[j];
+		a[j] = temp;
 	}
 
 }
@@ -0,0 +1,203 @@
+package siteswapsuite;
+
+import java.util.Arrays;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// General transitions that have already been computed, by the states and options they were
+// computed for, so that asking for the same transition again (as a server answering the same
+// popular pairs of patterns does all the time) doesn't compute it again. It holds at most a
+// given number of them, dropping the one that was used least recently to make room.
+//
+// The transitions it hands out are shared between everyone who asks for them, so they mustn't
+// be changed; everything that lists transitions from a general transition only reads it.
+//
+// It can also be given a TransitionCacheFile, to look in when a transition isn't held here and to
+// add new ones to, so that they're still there the next time the program runs.
+public class TransitionCache {
+
+	static final int DEFAULT_CAPACITY = 1024;
+
+	private static final TransitionCache shared = new TransitionCache(DEFAULT_CAPACITY);
+
+	private final int capacity;
+	private final LinkedHashMap<Key,Transition> transitions;
+	private long hits;
+	private long misses;
+	private TransitionCacheFile file;
+	private long fileHits;
+
+	public TransitionCache(int capacity) {
+		this.capacity = capacity;
+		// in access order, so the eldest entry is the least recently used one
+		this.transitions = new LinkedHashMap<Key,Transition>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Key,Transition> eldest) {
+				return this.size() > TransitionCache.this.capacity;
+			}
+		};
+		this.hits = 0;
+		this.misses = 0;
+		this.file = null;
+		this.fileHits = 0;
+	}
+
+	// the cache used for every transition list in this process
+	public static TransitionCache shared() {
+		return shared;
+	}
+
+	// look in (and add to) the given file too, from now on. the file is only there to save time, so if it
+	// can't be used (say another process has it open), this warns and carries on with only what's in memory.
+	// returns whether it's being used.
+	public synchronized boolean useFile(String fileName) {
+		try {
+			this.file = new TransitionCacheFile(fileName);
+			return true;
+		} catch(TransitionCacheFileException e) {
+			Util.printf("WARNING: " + e.getMessage().replaceFirst("^ERROR: ", "") + "; carrying on without it", Util.DebugLevel.ERROR);
+			return false;
+		}
+	}
+
+	// stop using the file, if there is one
+	public synchronized void closeFile() {
+		if(this.file != null) {
+			try {
+				this.file.close();
+			} catch(IOException e) {
+				Util.printf("ERROR: couldn't write transition cache file: " + e.getMessage(), Util.DebugLevel.ERROR);
+			}
+			this.file = null;
+		}
+	}
+
+	// the same as Transition.compute(), but only computed if it isn't here already.
+	// the lock is only held to look it up and to put it in, so computing one transition doesn't hold
+	// up looking up others; two threads asking for the same new one at once may both compute it.
+	Transition compute(State from, State to, int minLength, boolean allowExtraSqueezeCatches, boolean generateBallAntiballPairs) throws ImpossibleTransitionException {
+		if(!from.isFinite() || !to.isFinite()) {
+			// there's no transition to remember
+			return Transition.compute(from, to, minLength, allowExtraSqueezeCatches, generateBallAntiballPairs);
+		}
+		Key key = new Key(from, to, minLength, allowExtraSqueezeCatches, generateBallAntiballPairs);
+		Transition transition;
+		TransitionCacheFile file;
+		synchronized(this) {
+			transition = this.transitions.get(key);
+			if(transition != null) {
+				this.hits++;
+				return transition;
+			}
+			this.misses++;
+			file = this.file;
+		}
+		if(file != null) {
+			transition = file.get(key.values, key.longHash());
+			if(transition != null) {
+				synchronized(this) {
+					this.fileHits++;
+					Transition existing = this.transitions.putIfAbsent(key, transition);
+					return (existing != null ? existing : transition);
+				}
+			}
+		}
+		transition = Transition.compute(from, to, minLength, allowExtraSqueezeCatches, generateBallAntiballPairs);
+		if(file != null) {
+			try {
+				file.put(key.values, key.longHash(), transition);
+			} catch(IOException e) {
+				Util.printf("ERROR: couldn't write transition cache file, no longer using it: " + e.getMessage(), Util.DebugLevel.ERROR);
+				synchronized(this) {
+					if(this.file == file) {
+						this.file = null;
+					}
+				}
+			}
+		}
+		synchronized(this) {
+			Transition existing = this.transitions.putIfAbsent(key, transition);
+			return (existing != null ? existing : transition);
+		}
+	}
+
+	public synchronized int size() {
+		return this.transitions.size();
+	}
+
+	public synchronized long hits() {
+		return this.hits;
+	}
+
+	public synchronized long misses() {
+		return this.misses;
+	}
+
+	// how many of the misses were found in the file
+	public synchronized long fileHits() {
+		return this.fileHits;
+	}
+
+	public synchronized void clear() {
+		this.transitions.clear();
+		this.hits = 0;
+		this.misses = 0;
+		this.fileHits = 0;
+	}
+
+	public synchronized String toString() {
+		String out = this.transitions.size() + "/" + this.capacity + " transitions, " + this.hits + " hits, " + this.misses + " misses";
+		if(this.file != null) {
+			out += " (" + this.fileHits + " found in file of " + this.file.size() + ")";
+		}
+		return out;
+	}
+
+	// the options, then the charges of each (finite) state, beat by beat. Transition.compute()
+	// goes by the finite portions as they are, trailing zeroes and all, and so does the key
+	private static class Key {
+		final int[] values;
+		private final int hash;
+
+		private Key(State from, State to, int minLength, boolean allowExtraSqueezeCatches, boolean generateBallAntiballPairs) {
+			int numHands = from.numHands();
+			this.values = new int[5 + (from.finiteLength() + to.finiteLength()) * numHands];
+			int i = 0;
+			this.values[i++] = minLength;
+			this.values[i++] = (allowExtraSqueezeCatches ? 1 : 0) | (generateBallAntiballPairs ? 2 : 0);
+			this.values[i++] = numHands;
+			this.values[i++] = from.finiteLength();
+			for(int b=0; b<from.finiteLength(); b++) {
+				for(int h=0; h<numHands; h++) {
+					this.values[i++] = from.getChargeAtBeatAtHand(b, h);
+				}
+			}
+			this.values[i++] = to.finiteLength();
+			for(int b=0; b<to.finiteLength(); b++) {
+				for(int h=0; h<numHands; h++) {
+					this.values[i++] = to.getChargeAtBeatAtHand(b, h);
+				}
+			}
+			this.hash = Arrays.hashCode(this.values);
+		}
+
+		public int hashCode() {
+			return this.hash;
+		}
+
+		// a wider hash, for finding the key in a TransitionCacheFile without reading the whole of it
+		long longHash() {
+			long hash = 0x9e3779b97f4a7c15L;
+			for(int value : this.values) {
+				hash = (hash ^ value) * 0xff51afd7ed558ccdL;
+				hash ^= hash >>> 32;
+			}
+			return hash;
+		}
+
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(this.values, ((Key)other).values);
+		}
+	}
+
+}
@@ -0,0 +1,274 @@
+package siteswapsuite;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+class TransitionCacheFileException extends SiteswapException {
+	String message;
+	TransitionCacheFileException(String message) {
+		this.message = "ERROR: " + message;
+	}
+	public String getMessage() {
+		return this.message;
+	}
+}
+
+// General transitions (and their numbers of specific transitions) kept in a file, so that they
+// outlast the process: the on-disk companion of a TransitionCache. The file is memory-mapped and
+// only ever appended to. It starts with a header:
+//
+//   long MAGIC, int VERSION, int (unused), long end of the last complete entry
+//
+// followed by the entries, each of them
+//
+//   long hash of key, int length of the rest of the entry,
+//   int key length, int[] key (as in TransitionCache),
+//   int numHands, int period, int eventualPeriod,
+//   for each site: int number of tosses, then for each toss: int height, byte destHand, byte charge,
+//   int length of count, byte[] count (as in BigInteger.toByteArray())
+//
+// with infinite heights stored the same way as in PackedSiteswap. The end in the header is only moved
+// past an entry once all of it has been written out to the disk, so an entry cut off partway (by the
+// process or the machine going down) is never read, and the end itself is written out straight after,
+// so a complete entry isn't lost either. When the file is opened, only the hash and length of each
+// entry are read, to find where each one is; an entry is only decoded when it's asked for, and
+// entries whose hashes collide are told apart by their keys. Only one process can have the file open
+// at a time.
+public class TransitionCacheFile {
+
+	private static final long MAGIC = 0x7373735472616e73L; // "sssTrans"
+	private static final int VERSION = 2; // 2: counts no longer include the same tosses from a site in another order
+	private static final int END_OFFSET = 16;
+	private static final int HEADER_SIZE = 24;
+	private static final int INITIAL_MAPPED_SIZE = 1 << 16;
+
+	private String fileName;
+	private FileChannel channel;
+	private FileLock lock;
+	private MappedByteBuffer buffer;
+	private long end;
+	private Map<Long,List<Long>> offsets; // where the entries with each hash start (more than one if their hashes collide)
+	private int numEntries;
+
+	public TransitionCacheFile(String fileName) throws TransitionCacheFileException {
+		this.fileName = fileName;
+		this.offsets = new HashMap<Long,List<Long>>();
+		try {
+			this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+			try {
+				this.lock = this.channel.tryLock();
+			} catch(OverlappingFileLockException e) {
+				this.lock = null;
+			}
+			if(this.lock == null) {
+				this.channel.close();
+				throw new TransitionCacheFileException("transition cache file `" + fileName + "' is in use by another process");
+			}
+			long size = this.channel.size();
+			if(size == 0) {
+				this.map(INITIAL_MAPPED_SIZE);
+				this.buffer.putLong(0, MAGIC);
+				this.buffer.putInt(8, VERSION);
+				this.end = HEADER_SIZE;
+				this.buffer.putLong(END_OFFSET, this.end);
+			} else {
+				if(size < HEADER_SIZE) {
+					throw this.notACacheFile();
+				}
+				this.map(size);
+				if(this.buffer.getLong(0) != MAGIC || this.buffer.getInt(8) != VERSION) {
+					throw this.notACacheFile();
+				}
+				this.end = this.buffer.getLong(END_OFFSET);
+				if(this.end < HEADER_SIZE || this.end > size) {
+					throw this.notACacheFile();
+				}
+				// find where each entry is, without reading the rest of it
+				long offset = HEADER_SIZE;
+				while(offset < this.end) {
+					this.addOffset(this.buffer.getLong((int)offset), offset);
+					offset += 12 + this.buffer.getInt((int)offset + 8);
+				}
+			}
+		} catch(IOException e) {
+			throw new TransitionCacheFileException("couldn't open transition cache file `" + fileName + "': " + e.getMessage());
+		}
+	}
+
+	private TransitionCacheFileException notACacheFile() throws IOException {
+		this.channel.close();
+		return new TransitionCacheFileException("`" + this.fileName + "' isn't a transition cache file");
+	}
+
+	// map the first size bytes of the file (making it that long, if it's shorter)
+	private void map(long size) throws IOException {
+		if(size > Integer.MAX_VALUE) {
+			throw new IOException("file is too big");
+		}
+		this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	private void addOffset(long hash, long offset) {
+		List<Long> offsets = this.offsets.get(hash);
+		if(offsets == null) {
+			offsets = new ArrayList<Long>(1);
+			this.offsets.put(hash, offsets);
+		}
+		offsets.add(offset);
+		this.numEntries++;
+	}
+
+	// the transition stored under the given key, or null if there isn't one
+	synchronized Transition get(int[] key, long hash) {
+		List<Long> offsets = this.offsets.get(hash);
+		if(offsets == null) {
+			return null;
+		}
+		// find the one with the same key, not just the same hash
+		for(long offset : offsets) {
+			int i = (int)offset + 12;
+			if(this.keyMatches(key, i)) {
+				return this.read(i + 4 + 4 * key.length);
+			}
+		}
+		return null;
+	}
+
+	// whether the key stored at i is the given one
+	private boolean keyMatches(int[] key, int i) {
+		if(this.buffer.getInt(i) != key.length) {
+			return false;
+		}
+		i += 4;
+		for(int k=0; k<key.length; k++) {
+			if(this.buffer.getInt(i) != key[k]) {
+				return false;
+			}
+			i += 4;
+		}
+		return true;
+	}
+
+	// the transition stored at i, just after its key
+	private Transition read(int i) {
+		int numHands = this.buffer.getInt(i);
+		int period = this.buffer.getInt(i + 4);
+		int eventualPeriod = this.buffer.getInt(i + 8);
+		i += 12;
+		// the count comes last, so find it first
+		int j = i;
+		for(int s=0; s<period*numHands; s++) {
+			j += 4 + 6 * this.buffer.getInt(j);
+		}
+		byte[] count = new byte[this.buffer.getInt(j)];
+		for(int k=0; k<count.length; k++) {
+			count[k] = this.buffer.get(j + 4 + k);
+		}
+		Transition transition = Transition.stored(numHands, eventualPeriod, new BigInteger(count));
+		for(int b=0; b<period; b++) {
+			transition.appendEmptyBeat();
+			for(int h=0; h<numHands; h++) {
+				int numTosses = this.buffer.getInt(i);
+				i += 4;
+				for(int t=0; t<numTosses; t++) {
+					int height = this.buffer.getInt(i);
+					boolean isAntitoss = this.buffer.get(i + 5) < 0;
+					if(height == PackedSiteswap.POSITIVE_INFINITY) {
+						transition.addToss(b, h, new Toss(InfinityType.POSITIVE_INFINITY, isAntitoss));
+					} else if(height == PackedSiteswap.NEGATIVE_INFINITY) {
+						transition.addToss(b, h, new Toss(InfinityType.NEGATIVE_INFINITY, isAntitoss));
+					} else {
+						transition.addToss(b, h, new Toss(height, this.buffer.get(i + 4), isAntitoss));
+					}
+					i += 6;
+				}
+			}
+		}
+		return transition;
+	}
+
+	// add a transition to the end of the file, under the given key
+	synchronized void put(int[] key, long hash, Transition transition) throws IOException {
+		byte[] count = transition.numTransitions().toByteArray();
+		int numSites = transition.period() * transition.numHands();
+		int length = 4 + 4 * key.length + 12 + 4 * numSites + 4 + count.length;
+		for(int b=0; b<transition.period(); b++) {
+			for(int h=0; h<transition.numHands(); h++) {
+				length += 6 * transition.numTossesAtSite(b, h);
+			}
+		}
+		long newEnd = this.end + 12 + length;
+		if(newEnd > this.buffer.capacity()) {
+			long size = this.buffer.capacity();
+			while(size < newEnd) {
+				size *= 2;
+			}
+			this.map(size);
+		}
+		int i = (int)this.end;
+		this.buffer.putLong(i, hash);
+		this.buffer.putInt(i + 8, length);
+		this.buffer.putInt(i + 12, key.length);
+		i += 16;
+		for(int k=0; k<key.length; k++) {
+			this.buffer.putInt(i, key[k]);
+			i += 4;
+		}
+		this.buffer.putInt(i, transition.numHands());
+		this.buffer.putInt(i + 4, transition.period());
+		this.buffer.putInt(i + 8, transition.eventualPeriod);
+		i += 12;
+		for(int b=0; b<transition.period(); b++) {
+			for(int h=0; h<transition.numHands(); h++) {
+				this.buffer.putInt(i, transition.numTossesAtSite(b, h));
+				i += 4;
+				for(int t=0; t<transition.numTossesAtSite(b, h); t++) {
+					Toss toss = transition.getToss(b, h, t);
+					ExtendedInteger height = toss.height();
+					if(height.isInfinite()) {
+						this.buffer.putInt(i, (height.infiniteValue() == InfinityType.POSITIVE_INFINITY ? PackedSiteswap.POSITIVE_INFINITY : PackedSiteswap.NEGATIVE_INFINITY));
+						this.buffer.put(i + 4, (byte)PackedSiteswap.NO_HAND);
+					} else {
+						this.buffer.putInt(i, height.finiteValue());
+						this.buffer.put(i + 4, (byte)(int)toss.destHand());
+					}
+					this.buffer.put(i + 5, (byte)toss.charge());
+					i += 6;
+				}
+			}
+		}
+		this.buffer.putInt(i, count.length);
+		for(int k=0; k<count.length; k++) {
+			this.buffer.put(i + 4 + k, count[k]);
+		}
+		// only now is the entry complete, and it has to be on the disk before the end says it is
+		this.buffer.force((int)this.end, (int)(newEnd - this.end));
+		this.addOffset(hash, this.end);
+		this.end = newEnd;
+		this.buffer.putLong(END_OFFSET, this.end);
+		// and then the end, so that the entry survives the process or the machine going down
+		this.buffer.force(END_OFFSET, 8);
+	}
+
+	public synchronized int size() {
+		return this.numEntries;
+	}
+
+	// write everything out and let other processes use the file
+	public synchronized void close() throws IOException {
+		this.buffer.force();
+		this.lock.release();
+		this.channel.close();
+	}
+
+}
@@ -0,0 +1,87 @@
+package siteswapsuite;
+
+// Ways to score a transition, lower being easier, for picking out the best ones.
+// A transition's cost is built up from the cost of each of its throws: added up
+// for SUM and CROSSINGS, and the largest one for MAX. Only finite throws count
+// (balls that stay in the air forever are the same in every transition), and
+// antitosses count like tosses.
+public enum TransitionCost {
+
+	SUM("sum", "sum of throw heights"),
+	MAX("max", "highest throw"),
+	CROSSINGS("crossings", "number of throws that cross");
+
+	private String name;
+	private String description;
+
+	TransitionCost(String name, String description) {
+		this.name = name;
+		this.description = description;
+	}
+
+	public static TransitionCost fromStr(String str) {
+		for(TransitionCost cost : TransitionCost.values()) {
+			if(cost.name.equals(str)) {
+				return cost;
+			}
+		}
+		return null;
+	}
+
+	public String description() {
+		return this.description;
+	}
+
+	// the cost of a single throw. with one hand (async), a throw crosses if its
+	// height is odd, as it would when juggled with two hands.
+	public int tossCost(int height, int fromHand, int destHand, int numHands) {
+		switch(this) {
+			case CROSSINGS:
+				if(numHands == 1) {
+					return Math.abs(height) % 2;
+				}
+				return (fromHand == destHand ? 0 : 1);
+			default:
+				return Math.abs(height);
+		}
+	}
+
+	// the cost of two parts of a transition together
+	public int combine(int a, int b) {
+		if(this == MAX) {
+			return Math.max(a, b);
+		}
+		return a + b;
+	}
+
+	// whether combining costs adds them up, as opposed to taking the larger
+	public boolean addsUp() {
+		return this != MAX;
+	}
+
+	// the cost of the empty transition
+	public int zero() {
+		return 0;
+	}
+
+	public int of(Siteswap ss) {
+		int cost = this.zero();
+		for(int b=0; b<ss.period(); b++) {
+			for(int h=0; h<ss.numHands(); h++) {
+				for(int t=0; t<ss.numTossesAtSite(b, h); t++) {
+					Toss toss = ss.getToss(b, h, t);
+					if(toss.height().isInfinite() || toss.height().sign() <= 0) {
+						continue;
+					}
+					cost = this.combine(cost, this.tossCost(toss.height().finiteValue(), h, toss.destHand(), ss.numHands()));
+				}
+			}
+		}
+		return cost;
+	}
+
+	public String toString() {
+		return this.name;
+	}
+
+}
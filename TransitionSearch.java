@@ -0,0 +1,965 @@
+package siteswapsuite;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// Finds every shortest transition between two finite states of balls (no antiballs), by
+// breadth-first search over the states in between, built only as they're reached.
+//
+// A state s can get to the target in exactly r beats if and only if every ball of s that's
+// still in the air r beats from now lands where the target has room for it, and the balls
+// to be thrown before then are exactly enough to fill the rest of the target (counting
+// separately for each beat mod beatsPerStep, since that's all the balls can move between).
+// This is checked directly, which gives the length of the shortest transitions without any
+// searching, and then each layer of the search only keeps the states that can still make
+// it in the beats left. So every state that's kept is on some shortest transition, and they
+// can be listed (or counted, or sampled) without running into dead ends.
+//
+// Throws go to any (beat, hand) that's free, so balls can land and be rethrown partway
+// through. A slot can hold as many balls as the most any slot of either state holds, so
+// there are only multiplexes if one of the states has them. With beatsPerStep 2 (sync),
+// throw heights are even and transition lengths are a multiple of 2, like in StateGraph.
+//
+// Transitions can also be made to follow Constraints, which are applied to each throw as
+// the search goes. Then the shortest length isn't known up front: it's found by an A* search
+// over the states, using the number of beats the target is from a state without any
+// constraints (the check above) as the estimate, which never overestimates. The layers are
+// then searched as before, except that states the constraints leave stuck get dropped on
+// the way back. Without a max height, A* has no bound on the states to go by, so the lengths
+// are tried one after another instead, from the unconstrained shortest one, each with throws
+// as high as the length lets them go.
+//
+// longer() carries on to the transitions of the next length that has any. The states searched
+// are kept along with the number of beats they had left, and since that (and the beat, for
+// which hand throws) decides everything after them, each longer search only has to expand
+// the states that didn't come up before.
+public class TransitionSearch {
+
+	int numHands;
+	int beatsPerStep;
+	int length; // length of the shortest transitions, in beats
+	int width; // number of beats of each state that are kept track of
+	int capacity; // most balls one slot can hold
+	Constraints constraints;
+	int firstHand; // hand that throws first, when hands alternate
+	long searchNanos;
+
+	private int fromBeats;
+	private int targetBeats;
+	private byte[] target;
+	private byte[] startCharges;
+	private List<List<Node>> layers; // the states after each beat that are on some shortest transition
+	private int numEdges;
+	// every state searched so far, by number of beats left and beat mod phasePeriod (which together with
+	// the state decide its throws). each one keeps its throws and number of paths, so searches for
+	// longer transitions (see longer()) share them instead of searching them again
+	private Map<Integer,Map<Node,Node>> searched;
+	private int phasePeriod;
+	private int numReachableStates = -1; // with constraints, worked out when first needed
+
+	// rules for the throws of a transition. by default there are none.
+	public static class Constraints {
+		int maxHeight = -1; // -1 for no limit
+		Set<Integer> forbiddenHeights = new TreeSet<Integer>();
+		boolean noMultiplex = false;
+		boolean alternateHands = false;
+
+		public Constraints() {
+		}
+
+		public void setMaxHeight(int maxHeight) {
+			this.maxHeight = maxHeight;
+		}
+
+		// forbidding 0 means every hand has to throw something whenever it's its turn
+		public void forbidHeight(int height) {
+			this.forbiddenHeights.add(height);
+		}
+
+		public void setNoMultiplex() {
+			this.noMultiplex = true;
+		}
+
+		// with more than one hand (async), only one hand throws at each beat, in turn, starting with the
+		// first hand the starting state has a ball in
+		public void setAlternateHands() {
+			this.alternateHands = true;
+		}
+
+		public boolean isEmpty() {
+			return this.maxHeight == -1 && this.forbiddenHeights.isEmpty() && !this.noMultiplex && !this.alternateHands;
+		}
+
+		boolean allowsHeight(int height) {
+			return (this.maxHeight == -1 || height <= this.maxHeight) && !this.forbiddenHeights.contains(height);
+		}
+
+		public String toString() {
+			String out = "";
+			if(this.maxHeight != -1) {
+				out += "max height " + this.maxHeight + "; ";
+			}
+			if(!this.forbiddenHeights.isEmpty()) {
+				out += "no throws of height " + this.forbiddenHeights + "; ";
+			}
+			if(this.noMultiplex) {
+				out += "no multiplexes; ";
+			}
+			if(this.alternateHands) {
+				out += "alternating hands; ";
+			}
+			return (out.isEmpty() ? "none" : out.substring(0, out.length() - 2));
+		}
+	}
+
+	// a state reached by the search, and the throws out of it that stay on a shortest transition
+	// states are equal if they only differ in how many empty beats they have on the end, since the width
+	// grows along with the length when searching for longer transitions
+	private static class Node {
+		byte[] charges; // numHands entries per beat, for width beats
+		int size; // number of entries up to the last ball
+		int hash;
+		List<Edge> edges = new ArrayList<Edge>();
+		BigInteger numPaths; // number of ways to get from here to the target, or null until it's worked out
+
+		Node(byte[] charges) {
+			this.charges = charges;
+			this.size = charges.length;
+			while(this.size > 0 && charges[this.size - 1] == 0) {
+				this.size--;
+			}
+			this.hash = Arrays.hashCode(Arrays.copyOf(charges, this.size));
+		}
+
+		public int hashCode() {
+			return this.hash;
+		}
+
+		public boolean equals(Object other) {
+			if(!(other instanceof Node)) {
+				return false;
+			}
+			Node that = (Node)other;
+			return Arrays.equals(this.charges, 0, this.size, that.charges, 0, that.size);
+		}
+	}
+
+	private static class Edge {
+		Node target;
+		int[] landings; // slot (beats from now * numHands + hand) each ball lands in, hand by hand
+		Edge(Node target, int[] landings) {
+			this.target = target;
+			this.landings = landings;
+		}
+	}
+
+	// a state for A* to look at: how many beats it took to get there, and the estimated total length through it
+	private static class Visit implements Comparable<Visit> {
+		Node node;
+		int beat;
+		int estimate;
+		Visit(Node node, int beat, int estimate) {
+			this.node = node;
+			this.beat = beat;
+			this.estimate = estimate;
+		}
+		// lowest estimate first, then furthest along
+		public int compareTo(Visit other) {
+			if(this.estimate != other.estimate) {
+				return Integer.compare(this.estimate, other.estimate);
+			}
+			return Integer.compare(other.beat, this.beat);
+		}
+	}
+
+	// what to do with each way of throwing from a state: the state a beat later, and where each ball went
+	private interface Successor {
+		void accept(byte[] next, int[] landings);
+	}
+
+	public TransitionSearch(State from, State to, int minLength, int beatsPerStep) throws ImpossibleTransitionException {
+		this(from, to, minLength, beatsPerStep, new Constraints());
+	}
+
+	public TransitionSearch(State from, State to, int minLength, int beatsPerStep, Constraints constraints) throws ImpossibleTransitionException {
+		long startTime = System.nanoTime();
+		if(!from.isFinite() || !to.isFinite()) {
+			throw new ImpossibleTransitionException();
+		}
+		if(beatsPerStep < 1) {
+			throw new ImpossibleTransitionException("beats per step must be positive; got " + beatsPerStep);
+		}
+		if(constraints.alternateHands && beatsPerStep > 1) {
+			throw new ImpossibleTransitionException("hands can only alternate in async patterns");
+		}
+		this.numHands = from.numHands();
+		this.beatsPerStep = beatsPerStep;
+		this.constraints = constraints;
+		int fromBeats = from.finiteLength();
+		this.fromBeats = fromBeats;
+		this.targetBeats = to.finiteLength();
+		// read the states, and check they have the same number of balls and no antiballs
+		int fromBalls = 0;
+		int toBalls = 0;
+		this.capacity = 1;
+		for(int b=0; b<Math.max(fromBeats, this.targetBeats); b++) {
+			for(int h=0; h<this.numHands; h++) {
+				int fromCharge = from.getChargeAtBeatAtHand(b, h);
+				int toCharge = to.getChargeAtBeatAtHand(b, h);
+				if(fromCharge < 0 || toCharge < 0) {
+					throw new ImpossibleTransitionException("can only search for transitions between states without antiballs");
+				}
+				fromBalls += fromCharge;
+				toBalls += toCharge;
+				this.capacity = Math.max(this.capacity, Math.max(fromCharge, toCharge));
+			}
+		}
+		if(fromBalls != toBalls) {
+			throw new ImpossibleTransitionException("can only search for transitions between states with the same number of balls; got " + fromBalls + " and " + toBalls);
+		}
+		if(this.capacity > Byte.MAX_VALUE) {
+			throw new ImpossibleTransitionException("can only search for transitions with at most " + Byte.MAX_VALUE + " balls in one place");
+		}
+		if(constraints.noMultiplex && this.capacity > 1) {
+			throw new ImpossibleTransitionException("there is no transition without multiplexes between states with more than one ball in one place");
+		}
+		for(int i=0; i<fromBeats*this.numHands; i++) {
+			if(from.getChargeAtBeatAtHand(i / this.numHands, i % this.numHands) != 0) {
+				this.firstHand = ((i % this.numHands) - (i / this.numHands) % this.numHands + this.numHands) % this.numHands;
+				break;
+			}
+		}
+		this.target = new byte[this.targetBeats * this.numHands];
+		for(int b=0; b<this.targetBeats; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				this.target[b * this.numHands + h] = (byte)to.getChargeAtBeatAtHand(b, h);
+			}
+		}
+		// find the shortest length without constraints. once no ball of the starting state is left in the air, whether
+		// the target can be reached only depends on the length mod beatsPerStep, so there's no point looking any further
+		int firstLength = ((Math.max(minLength, 0) + beatsPerStep - 1) / beatsPerStep) * beatsPerStep;
+		int lastLength = Math.max(firstLength, fromBeats) + beatsPerStep;
+		byte[] start = new byte[(lastLength + this.targetBeats) * this.numHands];
+		for(int b=0; b<fromBeats; b++) {
+			for(int h=0; h<this.numHands; h++) {
+				start[b * this.numHands + h] = (byte)from.getChargeAtBeatAtHand(b, h);
+			}
+		}
+		this.length = -1;
+		for(int n=firstLength; n<=lastLength; n+=beatsPerStep) {
+			if(this.canReach(start, n, 0)) {
+				this.length = n;
+				break;
+			}
+		}
+		if(this.length == -1) {
+			throw new ImpossibleTransitionException("there is no transition between states " + from + " and " + to + " with throws every " + beatsPerStep + " beats");
+		}
+		this.phasePeriod = beatsPerStep * (constraints.alternateHands ? this.numHands : 1);
+		this.searched = new HashMap<Integer,Map<Node,Node>>();
+		if(constraints.maxHeight != -1) {
+			this.width = Math.max(Math.max(fromBeats, this.targetBeats), constraints.maxHeight + 1);
+			this.startCharges = Arrays.copyOf(start, this.width * this.numHands);
+		} else {
+			this.width = fromBeats;
+			this.startCharges = Arrays.copyOf(start, this.width * this.numHands);
+			this.fitWidth();
+		}
+		if(constraints.isEmpty()) {
+			this.searchLayers();
+		} else {
+			if(constraints.maxHeight != -1) {
+				// with all the throws fitting in the width, A* can go straight to the shortest length
+				int shortest = this.shortestConstrainedLength(this.startCharges);
+				if(shortest == -1) {
+					throw new ImpossibleTransitionException("there is no transition between states " + from + " and " + to + " with constraints: " + constraints);
+				}
+				this.length = Math.max(shortest, firstLength);
+			}
+			// a transition at least minLength long, if there's one at all, is less than maxExtraLength() longer
+			int longest = -1;
+			while(!this.searchLayers()) {
+				if(longest == -1) {
+					longest = this.length + this.maxExtraLength();
+				}
+				this.length += beatsPerStep;
+				if(this.length > longest) {
+					throw new ImpossibleTransitionException("there is no transition of at least " + minLength + " beats between states " + from + " and " + to + " with constraints: " + constraints);
+				}
+				this.fitWidth();
+			}
+		}
+		this.searchNanos = System.nanoTime() - startTime;
+		Util.printf(this, Util.DebugLevel.DEBUG);
+	}
+
+	// the same search, sharing everything searched so far, for longer()
+	private TransitionSearch(TransitionSearch shorter) {
+		this.numHands = shorter.numHands;
+		this.beatsPerStep = shorter.beatsPerStep;
+		this.length = shorter.length;
+		this.width = shorter.width;
+		this.capacity = shorter.capacity;
+		this.constraints = shorter.constraints;
+		this.firstHand = shorter.firstHand;
+		this.fromBeats = shorter.fromBeats;
+		this.targetBeats = shorter.targetBeats;
+		this.target = shorter.target;
+		this.startCharges = shorter.startCharges;
+		this.searched = shorter.searched;
+		this.phasePeriod = shorter.phasePeriod;
+		this.numReachableStates = shorter.numReachableStates;
+	}
+
+	// the transitions of the next length up that there are any of, or null if there aren't any longer
+	// transitions. only the states that weren't on the way to the target with the same number of beats
+	// left in this search (or the ones it came from) get searched.
+	public TransitionSearch longer() {
+		long startTime = System.nanoTime();
+		// without constraints, once the starting state's balls have all come down, whether there are any
+		// transitions only depends on the length mod beatsPerStep
+		int longest;
+		if(this.constraints.isEmpty()) {
+			longest = Math.max(this.length, this.fromBeats) + this.beatsPerStep;
+		} else {
+			longest = this.length + this.beatsPerStep + this.maxExtraLength();
+		}
+		TransitionSearch next = new TransitionSearch(this);
+		do {
+			next.length += this.beatsPerStep;
+			if(next.length > longest) {
+				return null;
+			}
+			next.fitWidth();
+		} while(!next.searchLayers());
+		next.searchNanos = System.nanoTime() - startTime;
+		Util.printf(next, Util.DebugLevel.DEBUG);
+		return next;
+	}
+
+	// without a max height, the balls thrown in a transition of this.length beats can land anywhere up to
+	// the end of the target after it, so keep track of that many beats
+	private void fitWidth() {
+		if(this.constraints.maxHeight == -1 && this.length + this.targetBeats > this.width) {
+			this.width = this.length + this.targetBeats;
+			this.startCharges = Arrays.copyOf(this.startCharges, this.width * this.numHands);
+		}
+	}
+
+	// whether the target can be reached from state s in exactly r more beats, s being from the given beat
+	private boolean canReach(byte[] s, int r, int beat) {
+		int numSlots = s.length;
+		// balls to throw minus room left to fill, for each beat mod beatsPerStep
+		int[] balance = new int[this.beatsPerStep];
+		for(int i=0; i<numSlots; i++) {
+			int charge = s[i];
+			if(charge == 0) {
+				continue;
+			}
+			int b = i / this.numHands;
+			if(b < r) {
+				balance[(beat + b) % this.beatsPerStep] += charge;
+			} else {
+				int j = (b - r) * this.numHands + i % this.numHands;
+				if(j >= this.target.length || charge > this.target[j]) {
+					return false;
+				}
+			}
+		}
+		for(int j=0; j<this.target.length; j++) {
+			int i = r * this.numHands + j;
+			int room = this.target[j] - (i < numSlots ? s[i] : 0);
+			balance[(beat + r + j / this.numHands) % this.beatsPerStep] -= room;
+		}
+		for(int k=0; k<this.beatsPerStep; k++) {
+			if(balance[k] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// the fewest beats it takes to get from s (at the given beat) to the target without constraints, or -1 if it can't be done
+	private int beatsToTarget(byte[] s, int beat) {
+		for(int r=0; r<=s.length/this.numHands+this.beatsPerStep; r++) {
+			if((beat + r) % this.beatsPerStep == 0 && this.canReach(s, r, beat)) {
+				return r;
+			}
+		}
+		return -1;
+	}
+
+	// A* search for the length of the shortest transitions that follow the constraints, or -1 if there are none
+	private int shortestConstrainedLength(byte[] start) {
+		// best number of beats found to each state, separately for each beat mod beatsPerStep
+		List<Map<Node,Integer>> bestBeats = new ArrayList<Map<Node,Integer>>();
+		for(int k=0; k<this.beatsPerStep; k++) {
+			bestBeats.add(new HashMap<Node,Integer>());
+		}
+		PriorityQueue<Visit> open = new PriorityQueue<Visit>();
+		int startEstimate = this.beatsToTarget(start, 0);
+		if(startEstimate == -1) {
+			return -1;
+		}
+		Node startNode = new Node(start);
+		bestBeats.get(0).put(startNode, 0);
+		open.add(new Visit(startNode, 0, startEstimate));
+		int numExpanded = 0;
+		while(!open.isEmpty()) {
+			Visit visit = open.poll();
+			Node node = visit.node;
+			int beat = visit.beat;
+			if(bestBeats.get(beat % this.beatsPerStep).get(node) < beat) {
+				continue;
+			}
+			// the estimate of what's left is exact when it's 0
+			if(visit.estimate == beat) {
+				Util.printf("A* expanded " + numExpanded + " states", Util.DebugLevel.DEBUG);
+				return beat;
+			}
+			numExpanded++;
+			Map<Node,Integer> nextBest = bestBeats.get((beat + 1) % this.beatsPerStep);
+			this.forEachSuccessor(node.charges, beat, this.width, (next, landings) -> {
+				int estimate = this.beatsToTarget(next, beat + 1);
+				if(estimate == -1) {
+					return;
+				}
+				Node nextNode = new Node(next);
+				Integer best = nextBest.get(nextNode);
+				if(best == null || best > beat + 1) {
+					nextBest.put(nextNode, beat + 1);
+					open.add(new Visit(nextNode, beat + 1, beat + 1 + estimate));
+				}
+			});
+		}
+		return -1;
+	}
+
+	// with constraints, how much longer than n beats the shortest transition of at least n beats can be,
+	// if there is one: the number of (state, beat mod phasePeriod) pairs the constraints allow getting to
+	// from the start. a longer one would have a pair twice, and leaving out the beats in between would give
+	// a shorter one that still follows the constraints.
+	// without a max height there's no end to the states, since balls can go ever higher, so this only counts
+	// the ones with throws that land within the width, or just past the highest forbidden height if that's
+	// further: past that, any height is allowed, and a transition that needs even higher throws than that
+	// after this many beats is given up on.
+	private int maxExtraLength() {
+		if(this.numReachableStates == -1) {
+			int width = this.width;
+			if(this.constraints.maxHeight == -1) {
+				for(int height : this.constraints.forbiddenHeights) {
+					width = Math.max(width, height + 2);
+				}
+			}
+			byte[] start = Arrays.copyOf(this.startCharges, width * this.numHands);
+			List<Set<Node>> seen = new ArrayList<Set<Node>>();
+			for(int k=0; k<this.phasePeriod; k++) {
+				seen.add(new HashSet<Node>());
+			}
+			List<Node> layer = new ArrayList<Node>();
+			layer.add(new Node(start));
+			seen.get(0).add(layer.get(0));
+			int count = 1;
+			for(int beat=0; !layer.isEmpty(); beat++) {
+				List<Node> nextLayer = new ArrayList<Node>();
+				Set<Node> nextSeen = seen.get((beat + 1) % this.phasePeriod);
+				for(Node node : layer) {
+					this.forEachSuccessor(node.charges, beat, width, (next, landings) -> {
+						Node nextNode = new Node(next);
+						if(nextSeen.add(nextNode)) {
+							nextLayer.add(nextNode);
+						}
+					});
+				}
+				count += nextLayer.size();
+				layer = nextLayer;
+			}
+			this.numReachableStates = count;
+		}
+		return this.numReachableStates;
+	}
+
+	// the states already searched with the given number of beats left, from the given beat
+	private Map<Node,Node> searchedStates(int beatsLeft, int beat) {
+		return this.searched.computeIfAbsent(beatsLeft * this.phasePeriod + beat % this.phasePeriod, k -> new HashMap<Node,Node>());
+	}
+
+	// search the layers of a transition of this.length beats from the starting state. returns whether there are any.
+	// states that have been searched before with the same number of beats left (for a shorter length) already
+	// have their throws worked out, along with everything after them, so only the new ones get expanded.
+	private boolean searchLayers() {
+		Node startNode = new Node(this.startCharges);
+		Node existing = this.searchedStates(this.length, 0).putIfAbsent(startNode, startNode);
+		if(existing != null) {
+			startNode = existing;
+		}
+		List<List<Node>> newLayers = new ArrayList<List<Node>>();
+		List<Node> layer = new ArrayList<Node>();
+		if(startNode.numPaths == null) {
+			layer.add(startNode);
+		}
+		newLayers.add(layer);
+		for(int beat=0; beat<this.length; beat++) {
+			List<Node> nextLayer = new ArrayList<Node>();
+			for(Node node : layer) {
+				this.expand(node, beat, nextLayer);
+			}
+			layer = nextLayer;
+			newLayers.add(layer);
+			Util.printf("beat " + beat + ": " + layer.size() + " new states", Util.DebugLevel.DEBUG);
+		}
+		// count the ways to the target from each new state, working backwards, and drop the throws to
+		// states that have none (which only happens with constraints)
+		for(Node node : layer) {
+			node.numPaths = BigInteger.ONE;
+		}
+		for(int beat=this.length-1; beat>=0; beat--) {
+			for(Node node : newLayers.get(beat)) {
+				node.numPaths = BigInteger.ZERO;
+				List<Edge> keptEdges = new ArrayList<Edge>();
+				for(Edge edge : node.edges) {
+					if(edge.target.numPaths.signum() > 0) {
+						node.numPaths = node.numPaths.add(edge.target.numPaths);
+						keptEdges.add(edge);
+					}
+				}
+				node.edges = keptEdges;
+			}
+		}
+		// then gather the layers of this length, old states included
+		this.layers = new ArrayList<List<Node>>();
+		this.numEdges = 0;
+		layer = new ArrayList<Node>();
+		layer.add(startNode);
+		this.layers.add(layer);
+		for(int beat=0; beat<this.length; beat++) {
+			Set<Node> nextLayer = new LinkedHashSet<Node>();
+			for(Node node : layer) {
+				this.numEdges += node.edges.size();
+				for(Edge edge : node.edges) {
+					nextLayer.add(edge.target);
+				}
+			}
+			layer = new ArrayList<Node>(nextLayer);
+			this.layers.add(layer);
+		}
+		return startNode.numPaths.signum() > 0;
+	}
+
+	// add every way of throwing the balls at the front of the given state that still leads to the target,
+	// adding the states thrown to that haven't been searched before to nextLayer
+	private void expand(Node node, int beat, List<Node> nextLayer) {
+		// nothing can be in the air past the end of the target once the transition is over
+		int maxBeat = Math.min(this.width, this.length - beat + this.targetBeats);
+		Map<Node,Node> known = this.searchedStates(this.length - beat - 1, beat + 1);
+		this.forEachSuccessor(node.charges, beat, maxBeat, (next, landings) -> {
+			if(!this.canReach(next, this.length - beat - 1, beat + 1)) {
+				return;
+			}
+			Node target = new Node(next);
+			Node existing = known.putIfAbsent(target, target);
+			if(existing != null) {
+				target = existing;
+			} else {
+				nextLayer.add(target);
+			}
+			node.edges.add(new Edge(target, landings.clone()));
+		});
+	}
+
+	// whether the given hand takes a turn to throw at the given beat
+	private boolean handThrowsAt(int hand, int beat) {
+		if(this.beatsPerStep > 1) {
+			return beat % this.beatsPerStep == 0;
+		}
+		if(this.constraints.alternateHands) {
+			return hand == (this.firstHand + beat) % this.numHands;
+		}
+		return true;
+	}
+
+	// every way of throwing the balls at the front of state s (at the given beat) that the constraints allow,
+	// landing before maxBeat
+	private void forEachSuccessor(byte[] s, int beat, int maxBeat, Successor out) {
+		byte[] work = s.clone();
+		int numThrows = 0;
+		for(int h=0; h<this.numHands; h++) {
+			if(s[h] == 0) {
+				if(this.handThrowsAt(h, beat) && !this.constraints.allowsHeight(0)) {
+					return;
+				}
+			} else if(this.constraints.alternateHands && !this.handThrowsAt(h, beat)) {
+				return;
+			}
+			numThrows += s[h];
+			work[h] = 0;
+		}
+		this.chooseLandings(s, beat, work, new int[numThrows], 0, 0, 0, maxBeat, out);
+	}
+
+	// choose where the ball with index ball (of those thrown from hand) lands, no earlier than the one before
+	// it so that balls thrown together aren't told apart
+	private void chooseLandings(byte[] s, int beat, byte[] work, int[] landings, int numChosen, int hand, int ball, int maxBeat, Successor out) {
+		if(hand == this.numHands) {
+			// move on a beat
+			byte[] next = new byte[work.length];
+			System.arraycopy(work, this.numHands, next, 0, work.length - this.numHands);
+			out.accept(next, landings);
+			return;
+		}
+		if(ball == s[hand]) {
+			this.chooseLandings(s, beat, work, landings, numChosen, hand + 1, 0, maxBeat, out);
+			return;
+		}
+		int minSlot = (ball == 0 ? this.beatsPerStep * this.numHands : landings[numChosen - 1]);
+		for(int slot=minSlot; slot<maxBeat*this.numHands; slot++) {
+			int height = slot / this.numHands;
+			if(height % this.beatsPerStep != 0 || work[slot] >= this.capacity || !this.constraints.allowsHeight(height)) {
+				continue;
+			}
+			if(this.constraints.alternateHands && !this.handThrowsAt(slot % this.numHands, beat + height)) {
+				continue;
+			}
+			landings[numChosen] = slot;
+			work[slot]++;
+			this.chooseLandings(s, beat, work, landings, numChosen + 1, hand, ball + 1, maxBeat, out);
+			work[slot]--;
+		}
+	}
+
+	// querying basic info
+	public int length() {
+		return this.length;
+	}
+
+	public int numHands() {
+		return this.numHands;
+	}
+
+	// number of states on shortest transitions, not counting repeats
+	public int numStates() {
+		int count = 0;
+		for(List<Node> layer : this.layers) {
+			count += layer.size();
+		}
+		return count;
+	}
+
+	public int numEdges() {
+		return this.numEdges;
+	}
+
+	public BigInteger numTransitions() {
+		return this.layers.get(0).get(0).numPaths;
+	}
+
+	// listing transitions
+
+	public Iterator<Siteswap> iterator() {
+		return new PathIterator();
+	}
+
+	public Stream<Siteswap> stream() {
+		int characteristics = Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		BigInteger numTransitions = this.numTransitions();
+		Spliterator<Siteswap> spliterator;
+		if(numTransitions.bitLength() < 64) {
+			spliterator = Spliterators.spliterator(this.iterator(), numTransitions.longValue(), characteristics);
+		} else {
+			spliterator = Spliterators.spliteratorUnknownSize(this.iterator(), characteristics);
+		}
+		return StreamSupport.stream(spliterator, false);
+	}
+
+	// every transition at least as long as these, shortest first: all the ones of each length in turn,
+	// as found by longer(). unless there's a longest transition (which can only happen with constraints)
+	// there's no end to them, so take only as many as are needed.
+	public Iterator<Siteswap> increasingLengthIterator() {
+		return new IncreasingLengthIterator();
+	}
+
+	public Stream<Siteswap> increasingLengthStream() {
+		int characteristics = Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this.increasingLengthIterator(), characteristics), false);
+	}
+
+	public List<Siteswap> list(int maxTransitions) {
+		List<Siteswap> ret = new ArrayList<Siteswap>();
+		Iterator<Siteswap> it = this.iterator();
+		while(it.hasNext() && (maxTransitions == -1 || ret.size() < maxTransitions)) {
+			ret.add(it.next());
+		}
+		return ret;
+	}
+
+	// a shortest transition chosen uniformly at random, by taking each throw with probability
+	// proportional to the number of ways to finish from where it goes
+	public Siteswap randomTransition(Random random) {
+		Edge[] path = new Edge[this.length];
+		Node node = this.layers.get(0).get(0);
+		for(int beat=0; beat<this.length; beat++) {
+			BigInteger index;
+			do {
+				index = new BigInteger(node.numPaths.bitLength(), random);
+			} while(index.compareTo(node.numPaths) >= 0);
+			for(Edge edge : node.edges) {
+				if(index.compareTo(edge.target.numPaths) < 0) {
+					path[beat] = edge;
+					break;
+				}
+				index = index.subtract(edge.target.numPaths);
+			}
+			node = path[beat].target;
+		}
+		return this.buildTransition(path);
+	}
+
+	// n distinct shortest transitions chosen uniformly at random, or all of them (in order) if there are no more than n
+	public List<Siteswap> randomTransitions(int n, Random random) {
+		if(this.numTransitions().compareTo(BigInteger.valueOf(n)) <= 0) {
+			return this.list(-1);
+		}
+		Map<String,Siteswap> chosen = new LinkedHashMap<String,Siteswap>();
+		while(chosen.size() < n) {
+			Siteswap ss = this.randomTransition(random);
+			chosen.putIfAbsent(ss.toString(), ss);
+		}
+		return new ArrayList<Siteswap>(chosen.values());
+	}
+
+	// the k shortest transitions that cost the least, cheapest first (those that cost the same in the
+	// order they're listed), or all of them in that order if k is -1. the cheapest way to finish from
+	// each state is worked out backwards from the target first, so a depth-first walk like the
+	// listing one knows exactly the best any path through a throw can do, and never follows a throw
+	// that can't beat the k cheapest transitions found so far.
+	public List<Siteswap> bestTransitions(int k, TransitionCost cost) {
+		Map<Node,Integer> cheapest = new IdentityHashMap<Node,Integer>();
+		for(Node node : this.layers.get(this.length)) {
+			cheapest.put(node, cost.zero());
+		}
+		for(int beat=this.length-1; beat>=0; beat--) {
+			for(Node node : this.layers.get(beat)) {
+				int best = Integer.MAX_VALUE;
+				for(Edge edge : node.edges) {
+					best = Math.min(best, cost.combine(this.edgeCost(node, edge, cost), cheapest.get(edge.target)));
+				}
+				cheapest.put(node, best);
+			}
+		}
+		BestPaths best = new BestPaths(k, cost, cheapest);
+		if(this.numTransitions().signum() > 0) {
+			best.search(this.layers.get(0).get(0), 0, cost.zero());
+		}
+		Util.printf("best transitions: visited " + best.numVisited + " throws", Util.DebugLevel.DEBUG);
+		return best.result();
+	}
+
+	// the cost of the throws made out of the given state along the given edge
+	private int edgeCost(Node node, Edge edge, TransitionCost cost) {
+		int total = cost.zero();
+		int i = 0;
+		for(int h=0; h<this.numHands; h++) {
+			for(int ball=0; ball<node.charges[h]; ball++) {
+				int slot = edge.landings[i++];
+				total = cost.combine(total, cost.tossCost(slot / this.numHands, h, slot % this.numHands, this.numHands));
+			}
+		}
+		return total;
+	}
+
+	// keeps the k cheapest paths found so far in a heap, most expensive (then latest found) on top
+	private class BestPaths {
+		int k;
+		TransitionCost cost;
+		Map<Node,Integer> cheapest;
+		Edge[] path = new Edge[length];
+		PriorityQueue<Path> heap = new PriorityQueue<Path>();
+		long numFound;
+		long numVisited;
+
+		private class Path implements Comparable<Path> {
+			int cost;
+			long order;
+			Edge[] edges;
+			Path(int cost, long order, Edge[] edges) {
+				this.cost = cost;
+				this.order = order;
+				this.edges = edges;
+			}
+			public int compareTo(Path other) {
+				if(this.cost != other.cost) {
+					return Integer.compare(other.cost, this.cost);
+				}
+				return Long.compare(other.order, this.order);
+			}
+		}
+
+		BestPaths(int k, TransitionCost cost, Map<Node,Integer> cheapest) {
+			this.k = k;
+			this.cost = cost;
+			this.cheapest = cheapest;
+		}
+
+		void search(Node node, int beat, int costSoFar) {
+			if(this.k == 0) {
+				return;
+			}
+			if(beat == length) {
+				this.offer(costSoFar);
+				return;
+			}
+			for(Edge edge : node.edges) {
+				this.numVisited++;
+				int costThrough = this.cost.combine(costSoFar, edgeCost(node, edge, this.cost));
+				if(this.k != -1 && this.heap.size() == this.k && this.cost.combine(costThrough, this.cheapest.get(edge.target)) >= this.heap.peek().cost) {
+					continue;
+				}
+				this.path[beat] = edge;
+				this.search(edge.target, beat + 1, costThrough);
+			}
+		}
+
+		private void offer(int cost) {
+			long order = this.numFound++;
+			if(this.k != -1 && this.heap.size() == this.k) {
+				if(cost >= this.heap.peek().cost) {
+					return;
+				}
+				this.heap.poll();
+			}
+			this.heap.add(new Path(cost, order, this.path.clone()));
+		}
+
+		// the transitions kept, cheapest first
+		List<Siteswap> result() {
+			Siteswap[] ret = new Siteswap[this.heap.size()];
+			for(int i=ret.length-1; i>=0; i--) {
+				ret[i] = buildTransition(this.heap.poll().edges);
+			}
+			return new ArrayList<Siteswap>(Arrays.asList(ret));
+		}
+	}
+
+	// the transition taking the given throws from each beat
+	private Siteswap buildTransition(Edge[] path) {
+		Siteswap ss = new Siteswap(this.numHands);
+		Node node = this.layers.get(0).get(0);
+		for(int b=0; b<this.length; b++) {
+			ss.appendEmptyBeat();
+			int i = 0;
+			for(int h=0; h<this.numHands; h++) {
+				for(int ball=0; ball<node.charges[h]; ball++) {
+					int slot = path[b].landings[i++];
+					ss.addFiniteToss(b, h, slot / this.numHands, slot % this.numHands);
+				}
+			}
+			node = path[b].target;
+		}
+		return ss;
+	}
+
+	// depth-first walk through the layers, taking the throws out of each state in the order they were found
+	private class PathIterator implements Iterator<Siteswap> {
+		Node[] nodes = new Node[length + 1];
+		int[] edgeIndices = new int[length];
+		Edge[] path = new Edge[length];
+		boolean hasNext;
+
+		PathIterator() {
+			this.nodes[0] = layers.get(0).get(0);
+			this.hasNext = this.descend(0);
+		}
+
+		// take the first throws from the given beat on; false if there are none (which only happens with no transitions at all)
+		private boolean descend(int fromBeat) {
+			for(int b=fromBeat; b<length; b++) {
+				if(this.nodes[b].edges.isEmpty()) {
+					return false;
+				}
+				this.edgeIndices[b] = 0;
+				this.path[b] = this.nodes[b].edges.get(0);
+				this.nodes[b+1] = this.path[b].target;
+			}
+			return true;
+		}
+
+		public boolean hasNext() {
+			return this.hasNext;
+		}
+
+		public Siteswap next() {
+			if(!this.hasNext) {
+				throw new NoSuchElementException();
+			}
+			Siteswap ret = buildTransition(this.path);
+			// step to the next path: change the latest throws that have another option
+			int b = length - 1;
+			while(b >= 0 && this.edgeIndices[b] + 1 >= this.nodes[b].edges.size()) {
+				b--;
+			}
+			if(b < 0) {
+				this.hasNext = false;
+			} else {
+				this.edgeIndices[b]++;
+				this.path[b] = this.nodes[b].edges.get(this.edgeIndices[b]);
+				this.nodes[b+1] = this.path[b].target;
+				this.descend(b + 1);
+			}
+			return ret;
+		}
+	}
+
+	private class IncreasingLengthIterator implements Iterator<Siteswap> {
+		TransitionSearch search = TransitionSearch.this;
+		Iterator<Siteswap> transitions = TransitionSearch.this.iterator();
+
+		public boolean hasNext() {
+			while(!this.transitions.hasNext()) {
+				if(this.search == null) {
+					return false;
+				}
+				this.search = this.search.longer();
+				if(this.search == null) {
+					return false;
+				}
+				this.transitions = this.search.iterator();
+			}
+			return true;
+		}
+
+		public Siteswap next() {
+			if(!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return this.transitions.next();
+		}
+	}
+
+	public String toString() {
+		String out = "transition search: length " + this.length + ", " + this.numHands + (this.numHands == 1 ? " hand" : " hands");
+		out += "\n states:      " + this.numStates();
+		out += "\n edges:       " + this.numEdges;
+		out += "\n transitions: " + this.numTransitions();
+		out += "\n searched in " + (this.searchNanos / 1000000.0) + " ms";
+		return out;
+	}
+
+}